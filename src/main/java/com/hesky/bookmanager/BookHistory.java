@@ -0,0 +1,204 @@
+package com.hesky.bookmanager;
+
+import com.hesky.bookmanager.model.*;
+import quickfix.FieldNotFound;
+import quickfix.Message;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * History of book states, which allows to get book at any message without replaying all messages.
+ * Full book is kept for each {@code interval}-th message, other messages are kept as compact lists of book operations
+ */
+public class BookHistory {
+    public static final int DEFAULT_INTERVAL = 256;
+
+    private static final byte ADD_BID = 0;
+    private static final byte ADD_ASK = 1;
+    private static final byte DELETE = 2;
+    private static final byte RESET = 3;
+    private static final int NO_SEQUENCE = -1;
+
+    private final String symbol;
+    private final int depth;
+    private final int interval;
+    private final BookMode bookMode;
+    private final BookProcessor processor;
+    //full books before applying messages 0, interval, 2*interval...
+    private final List<Book> snapshots = new ArrayList<>();
+
+    //sending time (epoch micros, UTC), sequence number of market data message and index of the first operation for each message
+    private long[] times = new long[1024];
+    private int[] sequences = new int[1024];
+    private int[] firstOperations = new int[1025];
+    private int size;
+
+    //book operations of all messages
+    private byte[] types = new byte[4096];
+    private long[] ids = new long[4096];
+    private double[] prices = new double[4096];
+    private long[] sizes = new long[4096];
+    private int operations;
+
+    /**
+     * @param symbol   trading symbol
+     * @param depth    number of book levels in returned books
+     * @param interval number of messages between full books
+     */
+    public BookHistory(String symbol, int depth, int interval) {
+        this(symbol, depth, BookMode.ORDERS, interval);
+    }
+
+    /**
+     * @param symbol   trading symbol
+     * @param depth    number of orders or price levels in returned books
+     * @param bookMode view of returned books
+     * @param interval number of messages between full books
+     */
+    public BookHistory(String symbol, int depth, BookMode bookMode, int interval) {
+        this.symbol = symbol;
+        this.depth = depth;
+        this.bookMode = bookMode;
+        this.interval = interval;
+        this.processor = new BookProcessor(symbol, depth, null);
+    }
+
+    /**
+     * Applies next message to the book and records its changes
+     *
+     * @param message FIX message (35=v, 35=w or 35=x)
+     * @throws FieldNotFound if FIX message is not valid
+     */
+    public void add(Message message) throws FieldNotFound {
+        if (size % interval == 0) {
+            snapshots.add(processor.getBook().copy());
+        }
+        ensureMessageCapacity();
+        times[size] = toMicros(message.getHeader().getUtcTimeStamp(52));
+        Delta delta = processor.process(message);
+        if (delta == null) {
+            //market data requests are outgoing messages and have sequence numbers of other direction
+            sequences[size] = NO_SEQUENCE;
+            addOperation(RESET, 0, 0, 0);
+        } else {
+            sequences[size] = delta.getNumber();
+            //full refresh replaces the whole book
+            if (message.getHeader().getString(35).equalsIgnoreCase("w")) {
+                addOperation(RESET, 0, 0, 0);
+            }
+            for (Delta.Entry entry : delta.getInputOrders()) {
+                if (entry.getAction() == Action.DELETE) {
+                    addOperation(DELETE, entry.getId(), 0, 0);
+                } else {
+                    addOperation(entry.getSide() == Side.BID ? ADD_BID : ADD_ASK, entry.getId(), entry.getPrice(), entry.getSize());
+                }
+            }
+        }
+        size++;
+        firstOperations[size] = operations;
+    }
+
+    /**
+     * @param time point of time
+     * @return depth-limited book after the last message, which was sent at or before {@code time}; empty book if there are no such messages
+     */
+    public Book getBook(LocalDateTime time) {
+        long micros = toMicros(time);
+        //binary search of the last message with time <= micros
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (times[mid] <= micros) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return getBookAfter(high);
+    }
+
+    /**
+     * @param sequenceNumber sequence number (tag 34) of market data message
+     * @return depth-limited book after the first market data message with {@code sequenceNumber} or null if message was not found
+     */
+    public Book getBook(int sequenceNumber) {
+        for (int i = 0; i < size; i++) {
+            if (sequences[i] == sequenceNumber) {
+                return getBookAfter(i);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param index index of message or -1
+     * @return depth-limited book after applying message with {@code index}
+     */
+    private Book getBookAfter(int index) {
+        if (index < 0) {
+            return new Book(symbol);
+        }
+        int from = index - index % interval;
+        Book book = snapshots.get(from / interval).copy();
+        for (int op = firstOperations[from]; op < firstOperations[index + 1]; op++) {
+            switch (types[op]) {
+                case ADD_BID:
+                    book.add(new Order(ids[op], Side.BID, prices[op], sizes[op]));
+                    break;
+                case ADD_ASK:
+                    book.add(new Order(ids[op], Side.ASK, prices[op], sizes[op]));
+                    break;
+                case DELETE:
+                    book.delete(ids[op]);
+                    break;
+                default:
+                    book.reset();
+            }
+        }
+        return book.getSnapshot(depth, bookMode);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private void addOperation(byte type, long id, double price, long orderSize) {
+        if (operations == types.length) {
+            int capacity = types.length * 2;
+            types = Arrays.copyOf(types, capacity);
+            ids = Arrays.copyOf(ids, capacity);
+            prices = Arrays.copyOf(prices, capacity);
+            sizes = Arrays.copyOf(sizes, capacity);
+        }
+        types[operations] = type;
+        ids[operations] = id;
+        prices[operations] = price;
+        sizes[operations] = orderSize;
+        operations++;
+    }
+
+    private void ensureMessageCapacity() {
+        if (size == times.length) {
+            int capacity = times.length * 2;
+            times = Arrays.copyOf(times, capacity);
+            sequences = Arrays.copyOf(sequences, capacity);
+            firstOperations = Arrays.copyOf(firstOperations, capacity + 1);
+        }
+    }
+
+    private static long toMicros(LocalDateTime time) {
+        long seconds = time.toEpochSecond(ZoneOffset.UTC);
+        //avoid overflow for times like LocalDateTime.MAX
+        if (seconds >= Long.MAX_VALUE / 1_000_000) {
+            return Long.MAX_VALUE;
+        } else if (seconds <= Long.MIN_VALUE / 1_000_000) {
+            return Long.MIN_VALUE;
+        }
+        return seconds * 1_000_000 + time.getNano() / 1_000;
+    }
+}
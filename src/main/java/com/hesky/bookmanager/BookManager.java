@@ -1,31 +1,66 @@
 package com.hesky.bookmanager;
 
 
+import com.hesky.bookmanager.analytics.LatencyAnalytics;
+import com.hesky.bookmanager.analytics.MarketStats;
 import com.hesky.bookmanager.controller.InputData;
+import com.hesky.bookmanager.export.ColumnarDeltaExporter;
+import com.hesky.bookmanager.export.CsvDeltaExporter;
 import com.hesky.bookmanager.model.*;
+import com.hesky.bookmanager.server.ReportServer;
+import com.hesky.bookmanager.util.Checkpoint;
+import com.hesky.bookmanager.util.DeltaCodec;
+import com.hesky.bookmanager.util.DirectionPrefilter;
 import com.hesky.bookmanager.util.FixParser;
-import j2html.tags.ContainerTag;
-import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.LineIterator;
+import com.hesky.bookmanager.util.GzipMemberOutputStream;
+import com.hesky.bookmanager.util.LinePrefilter;
+import com.hesky.bookmanager.util.LogPrefix;
+import com.hesky.bookmanager.util.MemoryBudget;
+import com.hesky.bookmanager.util.MergedLogReader;
+import com.hesky.bookmanager.util.MessageCodec;
+import com.hesky.bookmanager.util.ParseCache;
+import com.hesky.bookmanager.util.SequenceTracker;
+import com.hesky.bookmanager.util.SpillList;
 import org.slf4j.Logger;
 import quickfix.*;
 
-import java.io.PrintWriter;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.time.LocalDateTime;
 import java.util.*;
+import java.util.concurrent.CancellationException;
 
-import static com.hesky.bookmanager.util.BookManagerUtil.getBookChanges;
-import static com.hesky.bookmanager.util.BookManagerUtil.isDeleteExist;
-import static com.hesky.bookmanager.util.BookManagerUtil.readOrder;
 import static org.slf4j.LoggerFactory.getLogger;
 
 /**
- * Provide services to Parse logFile, manage book and build report
+ * Provide services to Parse log files, manage book and build report
  */
 public class BookManager {
     private static final Logger LOG = getLogger(BookManager.class);
+    //market data request (35=V) is sent, market data full refresh (35=W) and market data incremental refresh (35=X) are received
+    private static final char[] OUTBOUND_TYPES = {'V'};
+    private static final char[] INBOUND_TYPES = {'W', 'X'};
 
     private InputData data;
+    //set to stop current report building
+    private volatile boolean isCancelled;
+    //number of bytes of log files, which were processed by current report building
+    private volatile long processedBytes;
+    //history of book states for input data, built on first request
+    private BookHistory history;
+    //memory of lists of messages and deltas for input data, created on first request
+    private MemoryBudget budget;
+    //additional stages of report building
+    private final List<DeltaListener> listeners = new ArrayList<>();
 
     public BookManager(InputData data) {
         this.data = data;
@@ -37,134 +72,218 @@ public class BookManager {
 
     public void setData(InputData data) {
         this.data = data;
+        this.history = null;
+        this.budget = null;
     }
 
     /**
-     * Read logFile and parse and filter fix messages
+     * Read log files merged by time and parse and filter fix messages
      *
-     * @return List of FIX messages which were found in file and filtered by user inputData
+     * @return List of FIX messages which were found in file and filtered by user inputData; in warm up mode list includes messages before start time.
+     * Messages over memory budget are kept in temporary file; list may be closed to return its memory to budget
      * @throws Exception if cannot read file or cannot parse FIX message
      */
-    public List<Message> parseLogs() throws Exception {
-        LOG.debug("Parse log file: " + data.getLogFile());
-        List<Message> messages = new ArrayList<>();
-        LineIterator it = FileUtils.lineIterator(data.getLogFile().toFile(), "UTF-8");
-        try {
-            while (it.hasNext()) {
-                String line = it.nextLine();
-                //ignore heartbeat, login and other 35=v and 35=x messages that dont refers to chosen symbol
-                if (!line.contains(data.getSymbol())) {
+    public SpillList<Message> parseLogs() throws Exception {
+        List<Path> logFiles = data.getLogFiles();
+        LOG.debug("Parse log files: {}", logFiles);
+        SpillList<Message> messages = new SpillList<>(new MessageCodec(), getBudget());
+        ParseCache cache = createParseCache();
+        String cacheKey = cache == null ? null : parseCacheKey();
+        try (ParseCache.Reader cached = cache == null ? null : cache.read(cacheKey)) {
+            if (cached != null) {
+                LOG.debug("Read messages from parse cache {}", cacheKey);
+                int skipped = 0;
+                //messages out of time bounds are skipped without decoding
+                while (cached.next()) {
+                    if (isInTimeBounds(cached.getTime())) {
+                        Message message = cached.getMessage();
+                        if (message != null) {
+                            messages.add(message);
+                        } else {
+                            skipped++;
+                        }
+                    }
+                }
+                logSkipped(skipped);
+                logSequence(cached.getDuplicates(), cached.getGaps(), cached.getMissing(), cached.getRestarts());
+                LOG.debug("Found: {} messages", messages.size());
+                return messages;
+            }
+        }
+        DirectionPrefilter prefilter = createPrefilter();
+        SequenceTracker tracker = new SequenceTracker();
+        try (MergedLogReader reader = new MergedLogReader(logFiles);
+             ParseCache.Writer cacheWriter = cache == null ? null : cache.write(cacheKey)) {
+            while (reader.next()) {
+                //sequence numbers of all messages are tracked, duplicates are not cached
+                if (!tracker.accept(direction(reader.prefix()), reader.buffer(), reader.start(), reader.end())
+                        || !prefilter.accept(reader.prefix(), reader.buffer(), reader.start(), reader.end())) {
                     continue;
                 }
-                //cut the fixmessage from line of logs
-                String fixMessageString = line.substring(line.indexOf(" : ") + 3,
-                        line.lastIndexOf(" "));
-                Message fixMessage = FixParser.parse(fixMessageString);
-                //skip when message exceeds time bounds
-                LocalDateTime messageTime = fixMessage.getHeader().getField(new UtcTimeStampField(52)).getObject();
-                if (messageTime.isBefore(data.getStartTime())
-                        || messageTime.isAfter(data.getEndTime()))
+                String fixMessageString = reader.getFixMessage();
+                Message fixMessage = fixMessageString == null ? null : FixParser.parse(fixMessageString);
+                if (fixMessage == null) {
                     continue;
-                messages.add(fixMessage);
+                }
+                //cache keeps messages of all times, so that it is reused for other time bounds
+                LocalDateTime messageTime = fixMessage.getHeader().getUtcTimeStamp(52);
+                if (cacheWriter != null) {
+                    cacheWriter.add(fixMessage, reader.prefix().getDateTime());
+                }
+                if (isInTimeBounds(messageTime)) {
+                    messages.add(fixMessage);
+                }
+            }
+            if (cacheWriter != null) {
+                cacheWriter.commit(tracker);
             }
         }
-        finally {
-            LineIterator.closeQuietly(it);
-        }
+        logSequence(tracker.getDuplicates(), tracker.getGaps(), tracker.getMissing(), tracker.getRestarts());
         LOG.debug("Found: {} messages", messages.size());
         return messages;
     }
 
+    /**
+     * @return cache of parsed messages or null if it is disabled in input data
+     */
+    private ParseCache createParseCache() {
+        return data.getParseCacheDir() == null ? null : new ParseCache(data.getParseCacheDir(), data.getParseCacheBytes());
+    }
+
+    /**
+     * @return key of parse cache for log files, symbol and session of input data
+     */
+    private String parseCacheKey() throws IOException {
+        return ParseCache.key(data.getLogFiles(), data.getSession() == null ? data.getSymbol() : data.getSymbol() + "|" + data.getSession());
+    }
+
+    /**
+     * Logs messages, which were skipped, because their records in parse cache cannot be decoded
+     */
+    private static void logSkipped(int skipped) {
+        if (skipped > 0) {
+            LOG.warn("Skipped {} messages, which cannot be read from parse cache", skipped);
+        }
+    }
+
+    /**
+     * @return filter of raw lines by message type, symbol and session in direction of line
+     */
+    private DirectionPrefilter createPrefilter() {
+        List<String> symbols = Collections.singletonList(data.getSymbol());
+        return new DirectionPrefilter(new LinePrefilter(symbols, INBOUND_TYPES), new LinePrefilter(symbols, OUTBOUND_TYPES), data.getSession());
+    }
+
+    /**
+     * Parses and filters fix message from current line of {@code reader}; time bounds are checked by caller
+     *
+     * @param reader    reader of log files
+     * @param prefilter filter of raw lines
+     * @param tracker   tracker of sequence numbers of all lines
+     * @return FIX message or null if line should be skipped
+     */
+    private static Message readMessage(MergedLogReader reader, DirectionPrefilter prefilter, SequenceTracker tracker) {
+        //skip possible duplicates of messages, which were already processed
+        if (!tracker.accept(direction(reader.prefix()), reader.buffer(), reader.start(), reader.end())) {
+            return null;
+        }
+        //ignore heartbeat, login, echoes and other 35=v and 35=x messages that dont refers to chosen symbol and session before decoding line
+        if (!prefilter.accept(reader.prefix(), reader.buffer(), reader.start(), reader.end())) {
+            return null;
+        }
+        //cut the fixmessage from line of logs
+        String fixMessageString = reader.getFixMessage();
+        if (fixMessageString == null) {
+            return null;
+        }
+        //invalid message is logged by parser
+        return FixParser.parse(fixMessageString);
+    }
+
+    /**
+     * @param messageTime sending time of message
+     * @return true if message should be processed; messages before start time are kept for warm up of book
+     */
+    private boolean isInTimeBounds(LocalDateTime messageTime) {
+        return (data.isWarmUp() || !messageTime.isBefore(data.getStartTime())) && !messageTime.isAfter(data.getEndTime());
+    }
+
+    /**
+     * @return direction of line for {@link SequenceTracker} or 0 if line has no prefix
+     */
+    private static char direction(LogPrefix prefix) {
+        return prefix.isValid() ? prefix.getDirection() : 0;
+    }
+
+    /**
+     * Logs counts of {@link SequenceTracker} of parsed log files, which are also kept in parse cache
+     */
+    private static void logSequence(long duplicates, long gaps, long missing, long restarts) {
+        if (duplicates > 0) {
+            LOG.info("Skipped {} possible duplicates of messages", duplicates);
+        }
+        if (gaps > 0) {
+            LOG.warn("Found {} gaps of sequence numbers, {} messages are missing", gaps, missing);
+        }
+        if (restarts > 0) {
+            LOG.info("Sequence numbers were restarted {} times", restarts);
+        }
+    }
+
     /**
      * Perform Book managing for each message in {@code messages}
      *
      * @param messages List of FIX messages, that should be used for managing book
-     * @return List of Delta that should be displayed in report
+     * @return List of Delta that should be displayed in report; deltas over memory budget are kept in temporary file
      * @throws Exception if FIX messages are not valid
      */
-    public List<Delta> manageBook(List<Message> messages) throws Exception {
+    public SpillList<Delta> manageBook(List<Message> messages) throws Exception {
         LOG.debug("Managing book");
-        Book currentBook = new Book(data.getSymbol());
-        Message marketDataRequest = null;
-        boolean isBookReset = false;
-        List<Delta> deltas = new ArrayList<>(128);
+        //snapshots of all deltas are kept in compact form
+        SnapshotJournal journal = new SnapshotJournal();
+        BookProcessor processor = createProcessor(journal);
+        SpillList<Delta> deltas = new SpillList<>(new DeltaCodec(journal), getBudget());
+        long journalBytes = 0;
         for (Message message : messages) {
-            //receive new market data request
-            if (message.getHeader().getField(new StringField(35)).getValue().equalsIgnoreCase("v")) {
-                //type = subscribe + update (reset book)
-                if (message.getInt(263) == 1) {
-                    marketDataRequest = message;
-                    isBookReset = true;
-                }
-                currentBook.reset();
-                continue;
-            }
-            Delta delta = new Delta();
-            //Request is a market data incremental update (35=x)
-            if (message.getHeader().getField(new StringField(35)).getValue().equalsIgnoreCase("x")) {
-                //groups of orders
-                List<Group> groups = message.getGroups(268);
-                Book prevBook = currentBook.copy();
-                //book with limited by depth number of bids and asks
-                Book prevSnapshot = prevBook.getFirstLevels(data.getDepth());
-                //all added orders in current message
-                List<Order> addedOrders = new ArrayList<>();
-                for (Group group : groups) {
-                    //parse message and create new order
-                    if (group.getInt(279) == 0) {
-                        Order order = readOrder(group);
-                        //add new order to the book
-                        currentBook.add(order);
-                        //add new Order to delta input message
-                        delta.getInputOrders().add(new Delta.Entry(order, Action.NEW));
-                        //keep order of new orders
-                        addedOrders.add(order);
-                    }
-                }
-                //check for presence of delete requests in fix message
-                boolean isDeleteExist = isDeleteExist(groups);
-                //order of removed orders is important
-                //all removed orders in current message
-                Map<Double, Order> removedOrders = new LinkedHashMap<>();
-                if (isDeleteExist) {
-                    for (Group group : groups) {
-                        //check for group with 279 = 2 (delete request)
-                        if (group.getInt(279) == 2) {
-                            Long id = group.getDecimal(278).longValue();
-                            //remove from book
-                            Order removedOrder = currentBook.delete(id);
-                            //add order to removed orders to keep order
-                            removedOrders.put(removedOrder.getPrice(), removedOrder);
-                            //add delete request to input message in delta
-                            delta.getInputOrders().add(new Delta.Entry(removedOrder.getId(), 0.0, 0L, Action.DELETE));
-                        }
-                    }
-                }
-                //new book with limited by depth number of bids and asks(offers)
-                Book newSnapshot = currentBook.getFirstLevels(data.getDepth());
-                //if changes in first book levels occurred
-                if (!prevSnapshot.equals(newSnapshot)) {
-                    //add to delta book changes
-                    delta.setBookChanges(getBookChanges(removedOrders.values(), addedOrders, prevBook, currentBook, data.getDepth()));
-                } else {
-                    //add to delta empty list of book changes to avoid NullPointerException
-                    delta.setBookChanges(Collections.emptyList());
-                }
-            }
-            //compose delta
-            delta.setStartDateTime(Objects.requireNonNull(marketDataRequest).getHeader().getUtcTimeStamp(52));
-            delta.setEndDateTime(message.getHeader().getUtcTimeStamp(52));
-            delta.setBook(currentBook.getFirstLevels(data.getDepth()));
-            delta.setNumber(message.getHeader().getInt(34));
-            delta.setBookRefresh(isBookReset);
-            isBookReset = false;
+            Delta delta = processor.process(message);
             //add delta to result list
-            deltas.add(delta);
+            if (delta != null) {
+                //snapshots stay in heap, so their memory is counted before delta is added
+                deltas.reserve(journal.getEstimatedBytes() - journalBytes);
+                journalBytes = journal.getEstimatedBytes();
+                deltas.add(delta);
+            }
         }
-        LOG.debug("Created {} deltas", deltas.size());
+        LOG.debug("Created {} deltas, {} of them are spilled to disk", deltas.size(), deltas.getSpilled());
+        logUnknownOrders(processor);
         return deltas;
     }
 
+    private synchronized MemoryBudget getBudget() {
+        if (budget == null) {
+            budget = new MemoryBudget(data.getMemoryBudget());
+        }
+        return budget;
+    }
+
+    private BookProcessor createProcessor(SnapshotJournal journal) {
+        BookProcessor processor = new BookProcessor(data.getSymbol(), data.getDepth(), journal);
+        processor.setBookMode(data.getBookMode());
+        if (data.isWarmUp()) {
+            processor.setStartTime(data.getStartTime());
+        }
+        return processor;
+    }
+
+    private static void logUnknownOrders(BookProcessor processor) {
+        if (processor.getUnknownDeletes() > 0) {
+            LOG.warn("Skipped {} delete requests for unknown orders", processor.getUnknownDeletes());
+        }
+        if (processor.getUnknownChanges() > 0) {
+            LOG.warn("Skipped {} partial changes of unknown orders", processor.getUnknownChanges());
+        }
+    }
+
     /**
      * Creates and writes report to specified file using deltas for each iteration
      *
@@ -173,10 +292,16 @@ public class BookManager {
     public void createAndWriteReport(List<Delta> deltas) {
         LOG.debug("Making report");
         Report report = new Report(deltas, data);
-        ContainerTag html = report.makeReport();
-        try {
-            PrintWriter writer = new PrintWriter(data.getReportFile().toFile());
-            html.render(writer);
+        try (FileChannel reportChannel = FileChannel.open(data.getReportFile(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            Writer writer = openReport(reportChannel);
+            report.writeHead(writer);
+            try (ParallelRecordWriter records = createRecordWriter(writer, reportChannel)) {
+                for (Delta delta : deltas) {
+                    writeRecord(delta, report, writer, records);
+                }
+            }
+            report.writeTail(writer);
+            //finishes compressed stream; channel is closed again by try
             writer.close();
         }
         catch (Exception e) {
@@ -184,13 +309,303 @@ public class BookManager {
         }
     }
 
+    /**
+     * Starts HTTP server on localhost, which renders pages of report on demand instead of writing report file.
+     * Snapshots of deltas are kept in journal
+     *
+     * @param port port on localhost or 0 for any free port
+     * @return started server, which should be closed by caller; closing of server releases memory of deltas
+     * @throws Exception if cannot read log file, FIX messages are not valid or cannot bind to port
+     */
+    public ReportServer serveReport(int port) throws Exception {
+        SpillList<Delta> deltas;
+        try (SpillList<Message> messages = parseLogs()) {
+            deltas = manageBook(messages);
+        }
+        //server owns deltas and closes them with itself
+        ReportServer server;
+        try {
+            server = new ReportServer(data, deltas, port);
+        }
+        catch (IOException | RuntimeException e) {
+            deltas.close();
+            throw e;
+        }
+        server.start();
+        return server;
+    }
+
+    /**
+     * @param channel report channel
+     * @return writer to current position of {@code channel}; text is compressed to gzip members for .gz report file,
+     * flush of writer finishes member, so that position of channel is at the end of complete member
+     */
+    private Writer openReport(FileChannel channel) {
+        OutputStream out = Channels.newOutputStream(channel);
+        if (data.isCompressedReport()) {
+            out = new GzipMemberOutputStream(out);
+        }
+        return new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @param writer  writer of report channel, which is flushed before records are written to channel by rendering threads
+     * @param channel report channel
+     * @return writer, which renders records on pool of threads, or null if records are rendered on current thread
+     * @throws IOException if cannot flush {@code writer}
+     */
+    private ParallelRecordWriter createRecordWriter(Writer writer, FileChannel channel) throws IOException {
+        if (data.getRenderThreads() <= 1) {
+            return null;
+        }
+        writer.flush();
+        return new ParallelRecordWriter(data, channel, data.getRenderThreads());
+    }
 
     /**
-     * Build report for input data
+     * Processes message and passes its delta to report and stages
+     */
+    private static void processMessage(Message message, LocalDateTime logTime, BookProcessor processor, Report report, Writer writer,
+                                       ParallelRecordWriter records, List<DeltaListener> stages) throws FieldNotFound, IOException {
+        Delta delta = processor.process(message, logTime);
+        if (delta != null) {
+            writeRecord(delta, report, writer, records);
+            for (DeltaListener stage : stages) {
+                stage.onDelta(delta);
+            }
+        }
+    }
+
+    private static void writeRecord(Delta delta, Report report, Writer writer, ParallelRecordWriter records) throws IOException {
+        if (records != null) {
+            records.onDelta(delta);
+        } else {
+            report.writeRecord(delta, writer);
+        }
+    }
+
+    /**
+     * Adds stage, which receives each delta of the next report building and is closed when building is finished
+     *
+     * @param listener stage of report building
+     */
+    public void addListener(DeltaListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * @return stages of report building, which were added by user and enabled in input data
+     * @throws IOException if cannot create output of stage
+     */
+    private List<DeltaListener> createListeners() throws IOException {
+        List<DeltaListener> result = new ArrayList<>(listeners);
+        listeners.clear();
+        if (data.isLatencyAnalytics()) {
+            result.add(new LatencyAnalytics(data.getLatencyFile()));
+        }
+        if (data.isMarketStats()) {
+            result.add(new MarketStats(data.getStatsFile(), data.getStatsInterval()));
+        }
+        if (data.isCsvExport()) {
+            result.add(new CsvDeltaExporter(data.getCsvFile()));
+        }
+        if (data.isColumnarExport()) {
+            result.add(new ColumnarDeltaExporter(data.getColumnarFile()));
+        }
+        return result;
+    }
+
+    /**
+     * @return true if any stage, which writes its own output file from the first delta, is enabled in input data
+     */
+    private boolean hasOutputStages() {
+        return data.isLatencyAnalytics() || data.isMarketStats() || data.isCsvExport() || data.isColumnarExport();
+    }
+
+    /**
+     * Build report for input data. Log file is processed and report is written message by message.
+     * Checkpoints are written periodically, so that building, which was interrupted, is resumed from the last checkpoint.
+     * Outputs of stages enabled in input data are not saved in checkpoint, so building with such stages is neither
+     * checkpointed nor resumed. Stages added by {@link #addListener(DeltaListener)} receive only deltas, which were created after the checkpoint.
+     * Building from the start reads messages from parse cache, if it has entry for log files, or writes all messages of log files to it,
+     * so that the next building with other time bounds, depth or mode does not parse log files again
      *
      * @throws Exception if any error occurred during building report
+     * @throws CancellationException if building was cancelled by {@link #cancel()}
      */
     public void buildReport() throws Exception {
-        this.createAndWriteReport(manageBook(parseLogs()));
+        isCancelled = false;
+        processedBytes = 0;
+        Path checkpointFile = data.getCheckpointFile();
+        String checkpointKey = checkpointKey();
+        //stages rewrite their outputs, which would lose deltas before checkpoint
+        boolean isResumable = data.getCheckpointInterval() > 0 && !hasOutputStages();
+        Checkpoint checkpoint = isResumable ? Checkpoint.read(checkpointFile, checkpointKey) : null;
+        BookProcessor processor = createProcessor(null);
+        Report report = new Report(data);
+        DirectionPrefilter prefilter = createPrefilter();
+        //sequence numbers are tracked from resumed offset
+        SequenceTracker tracker = new SequenceTracker();
+        //each log file is read from its own offset
+        long[] logOffsets = null;
+        if (checkpoint != null) {
+            LOG.info("Resume report building from offsets {}", Arrays.toString(checkpoint.getLogOffsets()));
+            processor.restore(checkpoint.getBook(), checkpoint.getRequestTime(), checkpoint.isBookReset());
+            logOffsets = checkpoint.getLogOffsets();
+        }
+        //cache is neither read nor written by building, which is resumed from the middle of log files
+        ParseCache cache = checkpoint == null ? createParseCache() : null;
+        String cacheKey = cache == null ? null : parseCacheKey();
+        List<DeltaListener> stages = createListeners();
+        try (ParseCache.Reader cached = cache == null ? null : cache.read(cacheKey);
+             FileChannel reportChannel = FileChannel.open(data.getReportFile(), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            //drop report records written after checkpoint
+            reportChannel.truncate(checkpoint != null ? checkpoint.getReportLength() : 0);
+            reportChannel.position(reportChannel.size());
+            Writer writer = openReport(reportChannel);
+            if (checkpoint == null) {
+                report.writeHead(writer);
+            }
+            try (ParallelRecordWriter records = createRecordWriter(writer, reportChannel)) {
+                if (cached != null) {
+                    LOG.debug("Read messages from parse cache {}", cacheKey);
+                    long logBytes = 0;
+                    for (Path logFile : data.getLogFiles()) {
+                        logBytes += Files.size(logFile);
+                    }
+                    int skipped = 0;
+                    //building from cache is fast, so it is not checkpointed
+                    while (cached.next()) {
+                        //messages out of time bounds are skipped without decoding
+                        if (isInTimeBounds(cached.getTime())) {
+                            Message message = cached.getMessage();
+                            if (message != null) {
+                                processMessage(message, cached.getLogTime(), processor, report, writer, records, stages);
+                            } else {
+                                skipped++;
+                            }
+                        }
+                        //cache records are proportional to log lines
+                        processedBytes = (long) ((double) logBytes * cached.position() / cached.size());
+                        if (isCancelled) {
+                            throw new CancellationException("Report building was cancelled");
+                        }
+                    }
+                    logSkipped(skipped);
+                    logSequence(cached.getDuplicates(), cached.getGaps(), cached.getMissing(), cached.getRestarts());
+                } else {
+                    try (MergedLogReader reader = new MergedLogReader(data.getLogFiles(), logOffsets);
+                         ParseCache.Writer cacheWriter = cache == null ? null : cache.write(cacheKey)) {
+                        int processed = 0;
+                        while (reader.next()) {
+                            Message message = readMessage(reader, prefilter, tracker);
+                            if (message != null) {
+                                LocalDateTime logTime = reader.prefix().getDateTime();
+                                //cache keeps messages of all times, so that it is reused for other time bounds
+                                if (cacheWriter != null) {
+                                    cacheWriter.add(message, logTime);
+                                }
+                                if (isInTimeBounds(message.getHeader().getUtcTimeStamp(52))) {
+                                    processMessage(message, logTime, processor, report, writer, records, stages);
+                                    processed++;
+                                }
+                            }
+                            processedBytes = reader.nextOffset();
+                            boolean isCheckpointTime = isResumable && processed == data.getCheckpointInterval();
+                            if (isCheckpointTime || isResumable && isCancelled) {
+                                writer.flush();
+                                //position of channel includes all records before checkpoint
+                                if (records != null) {
+                                    records.flush();
+                                }
+                                new Checkpoint(checkpointKey, reader.offsets(), reportChannel.position(),
+                                        processor.getRequestTime(), processor.isBookReset(), processor.getBook()).write(checkpointFile);
+                                processed = 0;
+                            }
+                            //cache of cancelled building is not committed
+                            if (isCancelled) {
+                                throw new CancellationException("Report building was cancelled");
+                            }
+                        }
+                        if (cacheWriter != null) {
+                            cacheWriter.commit(tracker);
+                        }
+                    }
+                    logSequence(tracker.getDuplicates(), tracker.getGaps(), tracker.getMissing(), tracker.getRestarts());
+                }
+            }
+            report.writeTail(writer);
+            //finishes compressed stream; channel is closed again by try
+            writer.close();
+            logUnknownOrders(processor);
+        }
+        finally {
+            for (DeltaListener stage : stages) {
+                stage.close();
+            }
+        }
+        Files.deleteIfExists(checkpointFile);
+    }
+
+    /**
+     * @return identity of input data, which affects content of report
+     */
+    private String checkpointKey() throws IOException {
+        StringBuilder files = new StringBuilder();
+        for (Path logFile : data.getLogFiles()) {
+            files.append(logFile.toAbsolutePath()).append('|').append(Files.getLastModifiedTime(logFile)).append('|');
+        }
+        return files + data.getSymbol() + "|" + data.getSession() + "|" + data.getDepth() + "|" + data.getStartTime() + "|" + data.getEndTime() + "|" + data.isWarmUp() + "|" + data.getBookMode();
+    }
+
+    /**
+     * Returns state of book at {@code time} without building report. History of book states is built on the first call
+     *
+     * @param time point of time
+     * @return depth-limited book after the last message, which was sent at or before {@code time}
+     * @throws Exception if cannot read log file or FIX messages are not valid
+     */
+    public Book getBookAt(LocalDateTime time) throws Exception {
+        return getHistory().getBook(time);
+    }
+
+    /**
+     * Returns state of book after message with {@code sequenceNumber} without building report. History of book states is built on the first call
+     *
+     * @param sequenceNumber sequence number (tag 34) of market data message
+     * @return depth-limited book after the first market data message with {@code sequenceNumber} or null if there is no such message
+     * @throws Exception if cannot read log file or FIX messages are not valid
+     */
+    public Book getBookAt(int sequenceNumber) throws Exception {
+        return getHistory().getBook(sequenceNumber);
+    }
+
+    private synchronized BookHistory getHistory() throws Exception {
+        if (history == null) {
+            LOG.debug("Building book history");
+            BookHistory bookHistory = new BookHistory(data.getSymbol(), data.getDepth(), data.getBookMode(), BookHistory.DEFAULT_INTERVAL);
+            try (SpillList<Message> messages = parseLogs()) {
+                for (Message message : messages) {
+                    bookHistory.add(message);
+                }
+            }
+            LOG.debug("Book history contains {} messages", bookHistory.size());
+            history = bookHistory;
+        }
+        return history;
+    }
+
+    /**
+     * Stops current report building after writing checkpoint, if building is checkpointed
+     */
+    public void cancel() {
+        isCancelled = true;
+    }
+
+    /**
+     * @return number of log files bytes, which were processed by current report building
+     */
+    public long getProcessedBytes() {
+        return processedBytes;
     }
 }
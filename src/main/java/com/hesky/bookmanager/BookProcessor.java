@@ -0,0 +1,375 @@
+package com.hesky.bookmanager;
+
+import com.hesky.bookmanager.model.*;
+import quickfix.FieldNotFound;
+import quickfix.Group;
+import quickfix.Message;
+
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.function.Predicate;
+
+import static com.hesky.bookmanager.util.BookManagerUtil.getBookChanges;
+import static com.hesky.bookmanager.util.BookManagerUtil.getSnapshotChanges;
+import static com.hesky.bookmanager.util.BookManagerUtil.isCompleteOrder;
+import static com.hesky.bookmanager.util.BookManagerUtil.readChange;
+import static com.hesky.bookmanager.util.BookManagerUtil.readLong;
+import static com.hesky.bookmanager.util.BookManagerUtil.readOrder;
+
+/**
+ * Manages book for sequential FIX messages and creates {@link Delta} for each market data message
+ */
+public class BookProcessor {
+    //number of book levels in snapshots
+    private final int depth;
+    private final Book currentBook;
+    //journal of snapshots or null if each delta should keep its own snapshot
+    private final SnapshotJournal journal;
+    //time of the last market data request (35=v)
+    private LocalDateTime requestTime;
+    //indicates that book was reset by market data request and next delta should be marked as refresh
+    private boolean isBookReset;
+    //number of delete requests for orders, which are absent in book
+    private long unknownDeletes;
+    //number of changes without side, price or size for orders, which are absent in book
+    private long unknownChanges;
+    //messages sent before this time only warm up book, null if all messages create deltas
+    private LocalDateTime startTime;
+    //view of book in snapshots
+    private BookMode bookMode = BookMode.ORDERS;
+    //snapshot of book after the last delta, which is updated in place by next message, or null if book was modified without delta
+    private Book lastSnapshot;
+
+    //buffers of one message, which are cleared before each message
+    //all added orders in current message
+    private final List<Order> addedOrders = new ArrayList<>();
+    //order of removed orders is important
+    //all removed orders in current message
+    private final Map<Double, Order> removedOrders = new LinkedHashMap<>();
+    //new states of changed orders in current message
+    private final List<Order> changedOrders = new ArrayList<>();
+    //ids of orders, which were absent in book before current message
+    private final Set<Long> newIds = new HashSet<>();
+    //ids of orders, which were removed by current message
+    private final Set<Long> removedIds = new HashSet<>();
+    private final Predicate<Order> wasInBook = order -> !newIds.contains(order.getId());
+    //prices of bids and offers, which were added, changed or removed by current message
+    private final Set<Double> touchedBids = new HashSet<>();
+    private final Set<Double> touchedOffers = new HashSet<>();
+    //previous states of snapshot orders, which were changed by current message (key=id)
+    private final Map<Long, Order> snapshotChanges = new LinkedHashMap<>();
+
+    /**
+     * @param symbol  trading symbol
+     * @param depth   number of book levels in snapshots
+     * @param journal journal for snapshots of created deltas or null if each delta should keep its own snapshot
+     */
+    public BookProcessor(String symbol, int depth, SnapshotJournal journal) {
+        this.depth = depth;
+        this.journal = journal;
+        this.currentBook = new Book(symbol);
+    }
+
+    /**
+     * Applies {@code message} to the book
+     *
+     * @param message FIX message (35=v, 35=w or 35=x)
+     * @return Delta that should be displayed in report or null if message is a market data request or was sent before start time
+     * @throws FieldNotFound if FIX message is not valid
+     */
+    public Delta process(Message message) throws FieldNotFound {
+        return process(message, null);
+    }
+
+    /**
+     * Applies {@code message} to the book
+     *
+     * @param message FIX message (35=v, 35=w or 35=x)
+     * @param logTime time of writing message to log or null if it is unknown
+     * @return Delta that should be displayed in report or null if message is a market data request or was sent before start time
+     * @throws FieldNotFound if FIX message is not valid
+     */
+    public Delta process(Message message, LocalDateTime logTime) throws FieldNotFound {
+        String type = message.getHeader().getString(35);
+        //receive new market data request
+        if (type.equalsIgnoreCase("v")) {
+            //type = subscribe + update (reset book)
+            if (message.getInt(263) == 1) {
+                requestTime = message.getHeader().getUtcTimeStamp(52);
+                isBookReset = true;
+            }
+            currentBook.reset();
+            lastSnapshot = null;
+            return null;
+        }
+        LocalDateTime sendingTime = message.getHeader().getUtcTimeStamp(52);
+        //messages before report only bring book to the state at start time
+        if (startTime != null && sendingTime.isBefore(startTime)) {
+            warmUp(message, type);
+            lastSnapshot = null;
+            return null;
+        }
+        Delta delta = new Delta();
+        //book with limited by depth number of bids and asks, snapshot of previous delta is updated
+        Book snapshot = lastSnapshot != null ? lastSnapshot : currentBook.getSnapshot(depth, bookMode);
+        //journal keeps changes to previous delta, which are known only when its snapshot is updated by incremental message
+        boolean isUpdated = lastSnapshot != null && type.equalsIgnoreCase("x");
+        List<Delta.Entry> bookChanges = delta.getBookChanges();
+        snapshotChanges.clear();
+        //full refresh (35=w) replaces the whole book
+        if (type.equalsIgnoreCase("w")) {
+            List<Order> orders = readRefresh(message);
+            for (Order order : orders) {
+                delta.getInputOrders().add(new Delta.Entry(order, Action.NEW));
+            }
+            currentBook.load(orders);
+            //the whole book is replaced, so snapshot is taken again
+            Book prevSnapshot = snapshot;
+            snapshot = currentBook.getSnapshot(depth, bookMode);
+            bookChanges = getSnapshotChanges(prevSnapshot, snapshot);
+            //log may start after market data request, then book starts from full refresh
+            if (requestTime == null) {
+                requestTime = sendingTime;
+            }
+            isBookReset = true;
+        }
+        //Request is a market data incremental update (35=x)
+        if (type.equalsIgnoreCase("x")) {
+            addedOrders.clear();
+            removedOrders.clear();
+            changedOrders.clear();
+            newIds.clear();
+            removedIds.clear();
+            touchedBids.clear();
+            touchedOffers.clear();
+            //apply all entries in one pass in order of message
+            for (Group group : message.getGroups(268)) {
+                switch (group.getInt(279)) {
+                    //new order
+                    case 0: {
+                        Order order = readOrder(group);
+                        Order replaced = currentBook.get(order.getId());
+                        if (replaced == null && !removedIds.contains(order.getId())) {
+                            newIds.add(order.getId());
+                        }
+                        touch(replaced);
+                        touch(order);
+                        currentBook.add(order);
+                        delta.getInputOrders().add(new Delta.Entry(order, Action.NEW));
+                        addedOrders.add(order);
+                        break;
+                    }
+                    //change of order in place
+                    case 1: {
+                        Long id = readLong(group, 278);
+                        Order previous = currentBook.get(id);
+                        //partial change of order, which was not added (e.g. log starts after subscription), does not change book
+                        if (previous == null && !isCompleteOrder(group)) {
+                            unknownChanges++;
+                            delta.getInputOrders().add(new Delta.Entry(id, group.isSetField(270) ? group.getDouble(270) : 0.0,
+                                    group.isSetField(271) ? readLong(group, 271) : 0L, Action.UPDATE));
+                            break;
+                        }
+                        Order order = readChange(group, previous);
+                        delta.getInputOrders().add(new Delta.Entry(order, Action.UPDATE));
+                        touch(previous);
+                        touch(order);
+                        //unknown order appears in book as new one
+                        if (currentBook.change(order) != null) {
+                            changedOrders.add(order);
+                        } else {
+                            if (!removedIds.contains(id)) {
+                                newIds.add(id);
+                            }
+                            addedOrders.add(order);
+                        }
+                        break;
+                    }
+                    //delete request
+                    case 2: {
+                        Long id = readLong(group, 278);
+                        //remove from book
+                        Order removedOrder = currentBook.delete(id);
+                        //order was not added (e.g. log starts after subscription), so book is not changed
+                        if (removedOrder == null) {
+                            unknownDeletes++;
+                            delta.getInputOrders().add(new Delta.Entry(id, 0.0, 0L, Action.DELETE));
+                            break;
+                        }
+                        touch(removedOrder);
+                        //add order to removed orders to keep order
+                        removedOrders.put(removedOrder.getPrice(), removedOrder);
+                        removedIds.add(id);
+                        //add delete request to input message in delta
+                        delta.getInputOrders().add(new Delta.Entry(removedOrder.getId(), 0.0, 0L, Action.DELETE));
+                        break;
+                    }
+                    default:
+                        //other actions (e.g. delete thru) are not supported
+                        break;
+                }
+            }
+            //only touched levels and the end of snapshot are updated, so deep snapshot is not taken again
+            currentBook.updateSnapshot(snapshot, depth, bookMode, touchedBids, touchedOffers, snapshotChanges);
+            if (bookMode == BookMode.LEVELS) {
+                //price levels are compared by price, so changes are known without matching orders
+                bookChanges = getSnapshotChanges(snapshot, snapshotChanges);
+            } else if (!snapshotChanges.isEmpty()) {
+                //changes in first book levels occurred, add to delta book changes
+                bookChanges = getBookChanges(removedOrders.values(), addedOrders, changedOrders, snapshot, snapshotChanges, wasInBook);
+            } else {
+                //add to delta empty list of book changes to avoid NullPointerException
+                bookChanges = Collections.emptyList();
+            }
+        }
+        //compose delta
+        delta.setBookChanges(bookChanges);
+        delta.setStartDateTime(Objects.requireNonNull(requestTime, "Market data request was not found"));
+        delta.setEndDateTime(sendingTime);
+        delta.setLogDateTime(logTime);
+        lastSnapshot = snapshot;
+        //snapshot is updated by next message, so journal and delta keep their own copies
+        if (journal != null) {
+            int index = isUpdated ? journal.append(snapshot, snapshotChanges.keySet()) : journal.append(snapshot.copy());
+            delta.setBook(journal, index);
+        } else {
+            delta.setBook(snapshot.copy());
+        }
+        delta.setNumber(message.getHeader().getInt(34));
+        delta.setBookRefresh(isBookReset);
+        isBookReset = false;
+        return delta;
+    }
+
+    /**
+     * Adds price of {@code order} to touched prices of its side
+     *
+     * @param order order of book or null
+     */
+    private void touch(Order order) {
+        if (order != null) {
+            (order.getSide() == Side.BID ? touchedBids : touchedOffers).add(order.getPrice());
+        }
+    }
+
+    /**
+     * Applies message to the book without snapshots and book changes
+     *
+     * @param message FIX message (35=w or 35=x)
+     * @param type    type of message
+     * @throws FieldNotFound if FIX message is not valid
+     */
+    private void warmUp(Message message, String type) throws FieldNotFound {
+        if (type.equalsIgnoreCase("w")) {
+            currentBook.load(readRefresh(message));
+            if (requestTime == null) {
+                requestTime = message.getHeader().getUtcTimeStamp(52);
+            }
+            isBookReset = true;
+        } else if (type.equalsIgnoreCase("x")) {
+            for (Group group : message.getGroups(268)) {
+                switch (group.getInt(279)) {
+                    case 0:
+                        currentBook.add(readOrder(group));
+                        break;
+                    case 1: {
+                        Order previous = currentBook.get(readLong(group, 278));
+                        if (previous == null && !isCompleteOrder(group)) {
+                            unknownChanges++;
+                        } else {
+                            currentBook.change(readChange(group, previous));
+                        }
+                        break;
+                    }
+                    case 2:
+                        if (currentBook.delete(readLong(group, 278)) == null) {
+                            unknownDeletes++;
+                        }
+                        break;
+                    default:
+                        break;
+                }
+            }
+            isBookReset = false;
+        }
+    }
+
+    /**
+     * @param message full refresh (35=w)
+     * @return bids and offers of full refresh; other entries are not kept in book
+     * @throws FieldNotFound if FIX message is not valid
+     */
+    private static List<Order> readRefresh(Message message) throws FieldNotFound {
+        List<Group> groups = message.getGroups(268);
+        List<Order> orders = new ArrayList<>(groups.size());
+        for (Group group : groups) {
+            int entryType = group.getInt(269);
+            if (entryType == 0 || entryType == 1) {
+                orders.add(readOrder(group));
+            }
+        }
+        return orders;
+    }
+
+    /**
+     * Messages sent before {@code startTime} are applied to the book, but do not create deltas
+     *
+     * @param startTime start of report or null if all messages should create deltas
+     */
+    public void setStartTime(LocalDateTime startTime) {
+        this.startTime = startTime;
+    }
+
+    /**
+     * @param bookMode view of book in snapshots of deltas
+     */
+    public void setBookMode(BookMode bookMode) {
+        this.bookMode = bookMode;
+        this.lastSnapshot = null;
+    }
+
+    /**
+     * Restores state of processor (e.g. from checkpoint)
+     *
+     * @param book        orders, which should be present in book
+     * @param requestTime time of the last market data request or null if request was not received
+     * @param isBookReset true if next delta should be marked as book refresh
+     */
+    public void restore(Book book, LocalDateTime requestTime, boolean isBookReset) {
+        currentBook.reset();
+        currentBook.putBids(book.getBids().values());
+        currentBook.putOffers(book.getOffers().values());
+        this.requestTime = requestTime;
+        this.isBookReset = isBookReset;
+        this.lastSnapshot = null;
+    }
+
+    /**
+     * @return current full book; should not be modified
+     */
+    public Book getBook() {
+        return currentBook;
+    }
+
+    public LocalDateTime getRequestTime() {
+        return requestTime;
+    }
+
+    public boolean isBookReset() {
+        return isBookReset;
+    }
+
+    /**
+     * @return number of delete requests for orders, which were absent in book
+     */
+    public long getUnknownDeletes() {
+        return unknownDeletes;
+    }
+
+    /**
+     * @return number of partial changes for orders, which were absent in book
+     */
+    public long getUnknownChanges() {
+        return unknownChanges;
+    }
+}
@@ -0,0 +1,27 @@
+package com.hesky.bookmanager;
+
+import com.hesky.bookmanager.model.Delta;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Stage of report building, which receives each created {@link Delta} in order of messages
+ */
+public interface DeltaListener extends Closeable {
+
+    /**
+     * @param delta created delta; its book snapshot should not be modified
+     * @throws IOException if listener cannot write its output
+     */
+    void onDelta(Delta delta) throws IOException;
+
+    /**
+     * Called after the last delta of report building
+     *
+     * @throws IOException if listener cannot write its output
+     */
+    @Override
+    default void close() throws IOException {
+    }
+}
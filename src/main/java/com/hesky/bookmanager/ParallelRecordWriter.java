@@ -0,0 +1,266 @@
+package com.hesky.bookmanager;
+
+import com.hesky.bookmanager.controller.InputData;
+import com.hesky.bookmanager.model.Delta;
+import com.hesky.bookmanager.util.GzipMemberOutputStream;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Writes records of report, which are rendered on pool of worker threads. Deltas are grouped into batches,
+ * each batch is rendered and encoded to UTF-8 by one worker; writer thread writes rendered batches in order of deltas
+ * with gathering writes to report channel. Batches of compressed report are compressed by workers to separate gzip members.
+ * Number of batches in progress is limited, so memory does not depend on report size.
+ * Snapshots of added deltas should not be modified until they are written
+ */
+public class ParallelRecordWriter implements DeltaListener {
+    public static final int DEFAULT_BATCH_SIZE = 128;
+    //rendered batches per worker, which may wait for writing
+    private static final int BATCHES_PER_THREAD = 4;
+    //buffers of one gathering write
+    private static final int MAX_GATHERED = 16;
+    //marks end of batches for writer thread
+    private static final Future<ByteBuffer> END = CompletableFuture.completedFuture(null);
+
+    private final FileChannel channel;
+    private final int batchSize;
+    private final ExecutorService workers;
+    private final Thread writer;
+    //rendered batches in order of deltas
+    private final BlockingQueue<Future<ByteBuffer>> rendered = new LinkedBlockingQueue<>();
+    //permits for batches in progress
+    private final Semaphore window;
+    private final int windowSize;
+    //each worker renders with its own report, because report is not thread safe
+    private final ThreadLocal<Report> reports;
+    private final ThreadLocal<StringBuilder> texts = ThreadLocal.withInitial(StringBuilder::new);
+    //each batch is compressed by its worker to separate gzip member, or null if report is not compressed
+    private final ThreadLocal<Compressor> compressors;
+    //created compressors, which release their deflaters on close
+    private final List<Compressor> createdCompressors = new CopyOnWriteArrayList<>();
+    private List<Delta> batch;
+    //first error of rendering or writing; batches after error are not written
+    private volatile Exception failure;
+
+    /**
+     * @param data    user's input data
+     * @param channel report channel, records are written at its current position
+     * @param threads number of rendering threads
+     */
+    public ParallelRecordWriter(InputData data, FileChannel channel, int threads) {
+        this(data, channel, threads, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * @param data      user's input data
+     * @param channel   report channel, records are written at its current position
+     * @param threads   number of rendering threads
+     * @param batchSize number of deltas, which are rendered by one task
+     */
+    public ParallelRecordWriter(InputData data, FileChannel channel, int threads, int batchSize) {
+        if (threads < 1 || batchSize < 1) {
+            throw new IllegalArgumentException("Threads and batch size should be positive: " + threads + ", " + batchSize);
+        }
+        this.channel = channel;
+        this.batchSize = batchSize;
+        this.reports = ThreadLocal.withInitial(() -> new Report(data));
+        this.compressors = data.isCompressedReport() ? ThreadLocal.withInitial(this::createCompressor) : null;
+        this.windowSize = threads * BATCHES_PER_THREAD;
+        this.window = new Semaphore(windowSize);
+        this.batch = new ArrayList<>(batchSize);
+        this.workers = Executors.newFixedThreadPool(threads, task -> daemon(task, "report-renderer"));
+        this.writer = daemon(this::writeBatches, "report-writer");
+        writer.start();
+    }
+
+    private Compressor createCompressor() {
+        Compressor compressor = new Compressor();
+        createdCompressors.add(compressor);
+        return compressor;
+    }
+
+    private static Thread daemon(Runnable task, String name) {
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    /**
+     * Adds record of {@code delta} to report
+     *
+     * @throws IOException if rendering or writing of previous records failed
+     */
+    @Override
+    public void onDelta(Delta delta) throws IOException {
+        batch.add(delta);
+        if (batch.size() == batchSize) {
+            submit();
+        }
+    }
+
+    /**
+     * Waits until all added records are written to channel
+     *
+     * @throws IOException if rendering or writing of records failed
+     */
+    public void flush() throws IOException {
+        if (!batch.isEmpty()) {
+            submit();
+        }
+        acquire(windowSize);
+        window.release(windowSize);
+        checkFailure();
+    }
+
+    /**
+     * Writes remaining records, stops rendering and writer threads and releases compressors
+     *
+     * @throws IOException if rendering or writing of records failed
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        }
+        finally {
+            rendered.add(END);
+            workers.shutdownNow();
+            closeCompressors();
+        }
+    }
+
+    /**
+     * Ends deflaters of compressors after workers are stopped
+     */
+    private void closeCompressors() throws IOException {
+        try {
+            workers.awaitTermination(1, TimeUnit.MINUTES);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (Compressor compressor : createdCompressors) {
+            compressor.gzip.close();
+        }
+        createdCompressors.clear();
+    }
+
+    private void submit() throws IOException {
+        checkFailure();
+        acquire(1);
+        List<Delta> deltas = batch;
+        batch = new ArrayList<>(batchSize);
+        rendered.add(workers.submit(() -> render(deltas)));
+    }
+
+    private void acquire(int permits) throws InterruptedIOException {
+        try {
+            window.acquire(permits);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for report records");
+        }
+    }
+
+    private void checkFailure() throws IOException {
+        if (failure != null) {
+            throw failure instanceof IOException ? (IOException) failure : new IOException("Cannot render report records", failure);
+        }
+    }
+
+    /**
+     * @return UTF-8 bytes of records of {@code deltas}, which are compressed to gzip member for compressed report
+     */
+    private ByteBuffer render(List<Delta> deltas) throws IOException {
+        Report report = reports.get();
+        StringBuilder text = texts.get();
+        text.setLength(0);
+        for (Delta delta : deltas) {
+            report.writeRecord(delta, text);
+        }
+        ByteBuffer bytes = StandardCharsets.UTF_8.encode(CharBuffer.wrap(text));
+        return compressors == null ? bytes : compressors.get().compress(bytes);
+    }
+
+    /**
+     * Loop of writer thread: waits for the next batch in order and writes it together with following batches, which are already rendered
+     */
+    private void writeBatches() {
+        List<ByteBuffer> buffers = new ArrayList<>(MAX_GATHERED);
+        try {
+            while (true) {
+                Future<ByteBuffer> next = rendered.take();
+                if (next == END) {
+                    return;
+                }
+                buffers.add(result(next));
+                while (buffers.size() < MAX_GATHERED && rendered.peek() != null && rendered.peek() != END && rendered.peek().isDone()) {
+                    buffers.add(result(rendered.poll()));
+                }
+                write(buffers);
+                window.release(buffers.size());
+                buffers.clear();
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return rendered batch or null if batch or one of previous batches failed
+     */
+    private ByteBuffer result(Future<ByteBuffer> batch) throws InterruptedException {
+        try {
+            ByteBuffer buffer = batch.get();
+            return failure == null ? buffer : null;
+        }
+        catch (ExecutionException e) {
+            if (failure == null) {
+                failure = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+            }
+            return null;
+        }
+    }
+
+    private void write(List<ByteBuffer> buffers) {
+        if (failure != null) {
+            return;
+        }
+        ByteBuffer[] array = buffers.toArray(new ByteBuffer[0]);
+        try {
+            //gathering write may write only part of buffers
+            while (array[array.length - 1].hasRemaining()) {
+                channel.write(array);
+            }
+        }
+        catch (IOException e) {
+            failure = e;
+        }
+    }
+
+    /**
+     * Compresses batches of one worker
+     */
+    private static class Compressor {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream(1 << 16);
+        private final GzipMemberOutputStream gzip = new GzipMemberOutputStream(bytes);
+
+        ByteBuffer compress(ByteBuffer data) throws IOException {
+            bytes.reset();
+            gzip.write(data.array(), data.arrayOffset() + data.position(), data.remaining());
+            gzip.finishMember();
+            return ByteBuffer.wrap(bytes.toByteArray());
+        }
+    }
+}
@@ -1,11 +1,15 @@
 package com.hesky.bookmanager;
 
 import com.hesky.bookmanager.controller.InputData;
+import com.hesky.bookmanager.model.BookMode;
 import com.hesky.bookmanager.model.Delta;
 import com.hesky.bookmanager.model.Order;
+import com.hesky.bookmanager.util.ValueEncoder;
 import j2html.tags.ContainerTag;
 import j2html.tags.DomContent;
 
+import java.io.IOException;
+import java.util.Collections;
 import java.util.List;
 
 import static com.hesky.bookmanager.Align.*;
@@ -20,12 +24,23 @@ public class Report {
     private static final int THIRD_WIDTH = 33;
     private List<Delta> deltas;
     private InputData data;
+    //formats numbers and times of records
+    private final ValueEncoder encoder = new ValueEncoder();
 
     public Report(List<Delta> deltas, InputData data) {
         this.deltas = deltas;
         this.data = data;
     }
 
+    /**
+     * Creates report without deltas, which is written record by record
+     *
+     * @param data user's input data
+     */
+    public Report(InputData data) {
+        this(Collections.emptyList(), data);
+    }
+
     private static ContainerTag tableWith(DomContent... dc) {
         return tableWith(MAX_WIDTH, dc);
     }
@@ -46,6 +61,35 @@ public class Report {
         return td(content.toString()).attr("align", align.toString());
     }
 
+    /**
+     * @param value writes number or time, which has no characters to escape
+     * @param align alignment of cell or null
+     * @return cell, whose value is written by encoder straight into destination of report when cell is rendered
+     */
+    private static DomContent valueCell(ValueWriter value, Align align) {
+        return new ValueCell(value, align);
+    }
+
+    private DomContent priceCell(double price) {
+        return valueCell(out -> encoder.appendPrice(price, out), ALIGN_RIGHT);
+    }
+
+    private DomContent sizeCell(long size) {
+        return valueCell(out -> encoder.appendInteger(size, out), ALIGN_RIGHT);
+    }
+
+    private DomContent idCell(long id) {
+        return valueCell(out -> encoder.appendInteger(id, out), ALIGN_CENTER);
+    }
+
+    private static DomContent trWith(String name, ValueWriter value) {
+        return
+            tr(
+                td(name),
+                valueCell(value, null)
+            );
+    }
+
     private static DomContent thWith(Object content, int width, int colspan) {
         return
             th(content.toString())
@@ -104,6 +148,43 @@ public class Report {
             );
     }
 
+    /**
+     * Writes beginning of report (head and main header) same as {@link #makeReport()} renders before records
+     *
+     * @param out destination of report
+     * @throws IOException if cannot write to {@code out}
+     */
+    public void writeHead(Appendable out) throws IOException {
+        out.append("<html>");
+        head(
+            styles(),
+            scripts()
+        ).render(out);
+        out.append("<body>");
+        bodyHeader().render(out);
+    }
+
+    /**
+     * Writes one record of report
+     *
+     * @param delta data for one record
+     * @param out   destination of report
+     * @throws IOException if cannot write to {@code out}
+     */
+    public void writeRecord(Delta delta, Appendable out) throws IOException {
+        recordWrapper(delta).render(out);
+    }
+
+    /**
+     * Writes ending of report, which closes tags opened by {@link #writeHead(Appendable)}
+     *
+     * @param out destination of report
+     * @throws IOException if cannot write to {@code out}
+     */
+    public void writeTail(Appendable out) throws IOException {
+        out.append("</body></html>");
+    }
+
     /**
      * @return javascript src for report
      */
@@ -139,25 +220,40 @@ public class Report {
         return
             tableWith(
                 tbody(
-                    trWith("Log file", data.getLogFile().toAbsolutePath()),
+                    trWith("Log file", data.getLogName()),
                     trWith("Symbol name", data.getSymbol()),
-                    trWith("Book depth", data.getDepth()),
+                    trWith("Book depth", depthName()),
                     trWith("Start time", data.getStartTime()),
                     trWith("End time", data.getEndTime())
                 )
             );
     }
 
+    /**
+     * @return depth of book with its unit for price level view
+     */
+    private String depthName() {
+        String depth = data.getDepth() == InputData.FULL_BOOK ? "Full book" : String.valueOf(data.getDepth());
+        return data.getBookMode() == BookMode.LEVELS ? depth + " (price levels)" : depth;
+    }
+
     /**
      * @return book management records of report
      */
     private DomContent records() {
         return
-            each(deltas, delta ->
-                tableWrapper(
-                    bookRefreshHeader(delta.isBookRefresh()),
-                    record(delta)
-                )
+            each(deltas, this::recordWrapper);
+    }
+
+    /**
+     * @param delta data for one record
+     * @return record of book management with book refresh header
+     */
+    private DomContent recordWrapper(Delta delta) {
+        return
+            tableWrapper(
+                bookRefreshHeader(delta.isBookRefresh()),
+                record(delta)
             );
     }
 
@@ -302,8 +398,8 @@ public class Report {
             tr(
                 td(order.getAction().toString()),
                 td(order.getSide().toString()),
-                tdWith(order.getPrice(), ALIGN_RIGHT),
-                tdWith(order.getSize(), ALIGN_RIGHT)
+                priceCell(order.getPrice()),
+                sizeCell(order.getSize())
             );
     }
 
@@ -322,7 +418,8 @@ public class Report {
 
     /**
      * @param delta record data, that contains current bids and asks in book
-     * @return list of current market orders (offers -> bids), sorted by price
+     * @return list of current market orders (offers -> bids), sorted by price; snapshot, which is limited by number of orders,
+     * is shown order by order, price levels are shown by snapshot of price levels ({@link com.hesky.bookmanager.model.BookMode#LEVELS})
      */
     private DomContent bookOrdersRecords(Delta delta) {
         return
@@ -351,8 +448,8 @@ public class Report {
     private DomContent bidRow(Double price, Long size) {
         return
             tr(
-                tdWith(price, ALIGN_RIGHT),
-                tdWith(size, ALIGN_RIGHT),
+                priceCell(price),
+                sizeCell(size),
                 td(),
                 td()
             );
@@ -380,8 +477,8 @@ public class Report {
             tr(
                 td(),
                 td(),
-                tdWith(price, ALIGN_RIGHT),
-                tdWith(size, ALIGN_RIGHT)
+                priceCell(price),
+                sizeCell(size)
             );
     }
 
@@ -410,11 +507,11 @@ public class Report {
     private DomContent inputOrdersRecords(List<Delta.Entry> inputOrders) {
         return each(inputOrders, entry ->
             tr(
-                tdWith(entry.getId(), ALIGN_CENTER),
+                idCell(entry.getId()),
                 tdWith(entry.getAction(), ALIGN_LEFT),
                 tdWith(entry.getSide() == null ? "" : entry.getSide(), ALIGN_CENTER),
-                tdWith(entry.getPrice(), ALIGN_RIGHT),
-                tdWith(entry.getSize(), ALIGN_RIGHT)
+                priceCell(entry.getPrice()),
+                sizeCell(entry.getSize())
             )
         );
     }
@@ -471,10 +568,42 @@ public class Report {
         return
             tableWrapper(
                 join(
-                    trWith("Sending Time", delta.getStartDateTime()),
-                    trWith("Receiving time", delta.getEndDateTime()),
-                    trWith("Difference", delta.getDifference())
+                    trWith("Sending Time", out -> encoder.appendDateTime(delta.getStartDateTime(), out)),
+                    trWith("Receiving time", out -> encoder.appendDateTime(delta.getEndDateTime(), out)),
+                    trWith("Difference", out -> encoder.appendInteger(delta.getDifference(), out))
                 )
             );
     }
+
+    /**
+     * Writes value of cell into destination of report
+     */
+    @FunctionalInterface
+    private interface ValueWriter {
+        void write(Appendable out) throws IOException;
+    }
+
+    /**
+     * Table cell with number or time, which is not converted to string before rendering
+     */
+    private static class ValueCell extends DomContent {
+        private final ValueWriter value;
+        private final Align align;
+
+        ValueCell(ValueWriter value, Align align) {
+            this.value = value;
+            this.align = align;
+        }
+
+        @Override
+        public void renderModel(Appendable out, Object model) throws IOException {
+            if (align == null) {
+                out.append("<td>");
+            } else {
+                out.append("<td align=\"").append(align.toString()).append("\">");
+            }
+            value.write(out);
+            out.append("</td>");
+        }
+    }
 }
@@ -0,0 +1,124 @@
+package com.hesky.bookmanager.analytics;
+
+import com.hesky.bookmanager.DeltaListener;
+import com.hesky.bookmanager.model.Delta;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Streaming latency statistics of deltas (time between market data request and incremental update) in microseconds.
+ * Delay of logging (time between sending of update and writing it to log, which is taken from prefix of log line) is counted
+ * for deltas with known log time.
+ * Writes CSV row for each minute of each symbol as soon as minute is over and total row for each symbol at the end,
+ * so memory does not depend on number of deltas
+ */
+public class LatencyAnalytics implements DeltaListener {
+    private static final String HEADER = "symbol,minute,count,min_us,mean_us,p50_us,p90_us,p99_us,p999_us,max_us,"
+            + "log_count,log_p50_us,log_p99_us,log_max_us";
+    private static final String TOTAL = "TOTAL";
+
+    private final Writer writer;
+    private final Map<String, SymbolLatency> symbols = new LinkedHashMap<>();
+
+    /**
+     * @param file CSV file for statistics
+     * @throws IOException if cannot create file
+     */
+    public LatencyAnalytics(Path file) throws IOException {
+        this.writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8);
+        writer.write(HEADER);
+        writer.write('\n');
+    }
+
+    @Override
+    public void onDelta(Delta delta) throws IOException {
+        String symbol = delta.getBook().getSymbol();
+        SymbolLatency latency = symbols.get(symbol);
+        if (latency == null) {
+            latency = new SymbolLatency();
+            symbols.put(symbol, latency);
+        }
+        LocalDateTime minute = delta.getEndDateTime().truncatedTo(ChronoUnit.MINUTES);
+        if (!minute.equals(latency.minute)) {
+            if (latency.minute != null) {
+                writeRow(symbol, latency.minute.toString(), latency.perMinute, latency.perMinuteLog);
+            }
+            latency.perMinute.reset();
+            latency.perMinuteLog.reset();
+            latency.minute = minute;
+        }
+        long micros = delta.getDifferenceMicros();
+        latency.perMinute.record(micros);
+        latency.total.record(micros);
+        if (delta.getLogDateTime() != null) {
+            long logMicros = ChronoUnit.MICROS.between(delta.getEndDateTime(), delta.getLogDateTime());
+            latency.perMinuteLog.record(logMicros);
+            latency.totalLog.record(logMicros);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            for (Map.Entry<String, SymbolLatency> entry : symbols.entrySet()) {
+                SymbolLatency latency = entry.getValue();
+                if (latency.minute != null) {
+                    writeRow(entry.getKey(), latency.minute.toString(), latency.perMinute, latency.perMinuteLog);
+                }
+            }
+            for (Map.Entry<String, SymbolLatency> entry : symbols.entrySet()) {
+                writeRow(entry.getKey(), TOTAL, entry.getValue().total, entry.getValue().totalLog);
+            }
+        }
+        finally {
+            writer.close();
+        }
+    }
+
+    private void writeRow(String symbol, String minute, LatencyHistogram histogram, LatencyHistogram log) throws IOException {
+        writer.write(symbol + ',' + minute + ',' + histogram.getCount() + ',' + histogram.getMin() + ','
+                + Math.round(histogram.getMean()) + ',' + histogram.getValueAtPercentile(50) + ','
+                + histogram.getValueAtPercentile(90) + ',' + histogram.getValueAtPercentile(99) + ','
+                + histogram.getValueAtPercentile(99.9) + ',' + histogram.getMax() + ','
+                + log.getCount() + ',' + log.getValueAtPercentile(50) + ',' + log.getValueAtPercentile(99) + ',' + log.getMax() + '\n');
+    }
+
+    /**
+     * @param symbol trading symbol
+     * @return histogram of all latencies of {@code symbol} or null if there were no deltas for symbol
+     */
+    public LatencyHistogram getTotal(String symbol) {
+        SymbolLatency latency = symbols.get(symbol);
+        return latency == null ? null : latency.total;
+    }
+
+    /**
+     * @param symbol trading symbol
+     * @return histogram of all delays of logging of {@code symbol} or null if there were no deltas for symbol
+     */
+    public LatencyHistogram getTotalLog(String symbol) {
+        SymbolLatency latency = symbols.get(symbol);
+        return latency == null ? null : latency.totalLog;
+    }
+
+    /**
+     * Latency statistics of one symbol
+     */
+    private static class SymbolLatency {
+        private final LatencyHistogram total = new LatencyHistogram();
+        private final LatencyHistogram perMinute = new LatencyHistogram();
+        //delays of logging
+        private final LatencyHistogram totalLog = new LatencyHistogram();
+        private final LatencyHistogram perMinuteLog = new LatencyHistogram();
+        //minute of deltas, which are counted in perMinute
+        private LocalDateTime minute;
+    }
+}
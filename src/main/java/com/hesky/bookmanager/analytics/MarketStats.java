@@ -0,0 +1,151 @@
+package com.hesky.bookmanager.analytics;
+
+import com.hesky.bookmanager.DeltaListener;
+import com.hesky.bookmanager.model.Book;
+import com.hesky.bookmanager.model.Delta;
+import com.hesky.bookmanager.model.Order;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+
+/**
+ * Streaming market microstructure aggregates: spread, mid price, top of book depth imbalance and update rate.
+ * Each delta updates aggregates of current time bucket with work proportional to snapshot depth;
+ * CSV row is written as soon as time bucket is over
+ */
+public class MarketStats implements DeltaListener {
+    private static final String HEADER = "bucket_start,updates,updates_per_sec,quoted,spread_min,spread_mean,spread_max,"
+            + "mid_open,mid_high,mid_low,mid_close,imbalance_mean";
+
+    private final Writer writer;
+    private final long intervalMillis;
+
+    //start of current bucket (epoch millis, UTC) or Long.MIN_VALUE if there were no deltas
+    private long bucketStart = Long.MIN_VALUE;
+    private long updates;
+    //number of updates with both sides of book
+    private long quoted;
+    private double spreadMin;
+    private double spreadMax;
+    private double spreadSum;
+    private double midOpen;
+    private double midHigh;
+    private double midLow;
+    private double midClose;
+    private double imbalanceSum;
+
+    /**
+     * @param file     CSV file for aggregates
+     * @param interval length of time bucket, at least one millisecond
+     * @throws IOException if cannot create file
+     */
+    public MarketStats(Path file, Duration interval) throws IOException {
+        if (interval.toMillis() <= 0) {
+            throw new IllegalArgumentException("Interval should be at least one millisecond: " + interval);
+        }
+        this.intervalMillis = interval.toMillis();
+        this.writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8);
+        writer.write(HEADER);
+        writer.write('\n');
+    }
+
+    @Override
+    public void onDelta(Delta delta) throws IOException {
+        long time = delta.getEndDateTime().toInstant(ZoneOffset.UTC).toEpochMilli();
+        long bucket = time - Math.floorMod(time, intervalMillis);
+        if (bucket != bucketStart) {
+            flush();
+            startBucket(bucket);
+        }
+        updates++;
+        Book book = delta.getBook();
+        double bestBid = Double.NaN;
+        long bidSize = 0;
+        for (Order bid : book.getBids().values()) {
+            if (Double.isNaN(bestBid) || bid.getPrice() > bestBid) {
+                bestBid = bid.getPrice();
+            }
+            bidSize += bid.getSize();
+        }
+        double bestAsk = Double.NaN;
+        long askSize = 0;
+        for (Order offer : book.getOffers().values()) {
+            if (Double.isNaN(bestAsk) || offer.getPrice() < bestAsk) {
+                bestAsk = offer.getPrice();
+            }
+            askSize += offer.getSize();
+        }
+        if (Double.isNaN(bestBid) || Double.isNaN(bestAsk)) {
+            return;
+        }
+        double spread = bestAsk - bestBid;
+        double mid = (bestAsk + bestBid) / 2;
+        if (quoted == 0) {
+            spreadMin = spread;
+            spreadMax = spread;
+            midOpen = mid;
+            midHigh = mid;
+            midLow = mid;
+        } else {
+            spreadMin = Math.min(spreadMin, spread);
+            spreadMax = Math.max(spreadMax, spread);
+            midHigh = Math.max(midHigh, mid);
+            midLow = Math.min(midLow, mid);
+        }
+        midClose = mid;
+        spreadSum += spread;
+        imbalanceSum += bidSize + askSize == 0 ? 0 : (double) (bidSize - askSize) / (bidSize + askSize);
+        quoted++;
+    }
+
+    private void startBucket(long bucket) {
+        bucketStart = bucket;
+        updates = 0;
+        quoted = 0;
+        spreadSum = 0;
+        imbalanceSum = 0;
+    }
+
+    /**
+     * Writes row of current bucket
+     */
+    private void flush() throws IOException {
+        if (bucketStart == Long.MIN_VALUE) {
+            return;
+        }
+        StringBuilder row = new StringBuilder(128)
+                .append(LocalDateTime.ofEpochSecond(Math.floorDiv(bucketStart, 1000), (int) Math.floorMod(bucketStart, 1000) * 1_000_000, ZoneOffset.UTC))
+                .append(',').append(updates)
+                .append(',').append(updates * 1000d / intervalMillis)
+                .append(',').append(quoted);
+        if (quoted > 0) {
+            row.append(',').append(spreadMin)
+                    .append(',').append(spreadSum / quoted)
+                    .append(',').append(spreadMax)
+                    .append(',').append(midOpen)
+                    .append(',').append(midHigh)
+                    .append(',').append(midLow)
+                    .append(',').append(midClose)
+                    .append(',').append(imbalanceSum / quoted);
+        } else {
+            row.append(",,,,,,,,");
+        }
+        writer.write(row.append('\n').toString());
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        }
+        finally {
+            writer.close();
+        }
+    }
+}
@@ -1,23 +1,121 @@
 package com.hesky.bookmanager.controller;
 
+import com.hesky.bookmanager.model.BookMode;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
 
 /**
  * User input data from GUI
  */
 public class InputData {
+    public static final int DEFAULT_CHECKPOINT_INTERVAL = 50_000;
+    public static final Path DEFAULT_PARSE_CACHE_DIR = Paths.get(System.getProperty("java.io.tmpdir"), "bookmanager-cache");
+    public static final long DEFAULT_PARSE_CACHE_BYTES = 1L << 30;
+    public static final Duration DEFAULT_STATS_INTERVAL = Duration.ofSeconds(1);
+    //depth of book, which includes all orders
+    public static final int FULL_BOOK = Integer.MAX_VALUE;
+
+    //log file or glob pattern in file name (e.g. fix-*.summary) of rotated log files
     private Path logFile;
+    //several log files, which are merged by time, or null if log file is used
+    private List<Path> logFiles;
     private Path reportFile;
     private String symbol;
+    //CompID of counterparty, whose session is processed, or null if all sessions are processed
+    private String session;
     private int depth;
+    //depth counts orders or price levels
+    private BookMode bookMode = BookMode.ORDERS;
     private LocalDateTime startTime;
     private LocalDateTime endTime;
+    //apply messages before start time to book without showing them in report
+    private boolean isWarmUp = true;
+    //number of processed messages between checkpoints (0 disables checkpoints)
+    private int checkpointInterval = DEFAULT_CHECKPOINT_INTERVAL;
+    //write latency statistics near report
+    private boolean isLatencyAnalytics;
+    //write market microstructure aggregates near report
+    private boolean isMarketStats;
+    //length of time bucket of market microstructure aggregates
+    private Duration statsInterval = DEFAULT_STATS_INTERVAL;
+    //export deltas to CSV file near report
+    private boolean isCsvExport;
+    //export deltas to columnar binary file near report
+    private boolean isColumnarExport;
+    //number of threads, which render records of report (1 renders records on processing thread)
+    private int renderThreads = Runtime.getRuntime().availableProcessors();
+    //directory of parsed messages, which are reused for the same log file and symbol (null disables cache)
+    private Path parseCacheDir = DEFAULT_PARSE_CACHE_DIR;
+    //disk budget of parse cache
+    private long parseCacheBytes = DEFAULT_PARSE_CACHE_BYTES;
+    //estimated heap memory of parsed messages, deltas and snapshots; data over budget is kept in temporary files
+    private long memoryBudget = Runtime.getRuntime().maxMemory() / 2;
 
     public Path getLogFile() {
         return logFile;
     }
 
+    /**
+     * @param logFiles several log files, which are merged by time, or null if log file is used
+     */
+    public void setLogFiles(List<Path> logFiles) {
+        this.logFiles = logFiles;
+    }
+
+    /**
+     * @return log files, which are merged by time: files, which were set, or files, which match glob pattern of log file
+     * in order of names, or log file itself
+     * @throws IOException if cannot list directory of log files
+     */
+    public List<Path> getLogFiles() throws IOException {
+        if (logFiles != null) {
+            return logFiles;
+        }
+        if (!isLogPattern()) {
+            return Collections.singletonList(logFile);
+        }
+        Path directory = logFile.toAbsolutePath().getParent();
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> matched = Files.newDirectoryStream(directory, logFile.getFileName().toString())) {
+            for (Path file : matched) {
+                if (Files.isRegularFile(file)) {
+                    files.add(file);
+                }
+            }
+        }
+        Collections.sort(files);
+        return files;
+    }
+
+    /**
+     * @return true if file name of log file is glob pattern
+     */
+    public boolean isLogPattern() {
+        String name = logFile.getFileName().toString();
+        return name.indexOf('*') >= 0 || name.indexOf('?') >= 0 || name.indexOf('[') >= 0 || name.indexOf('{') >= 0;
+    }
+
+    /**
+     * @return absolute paths of log files, which were set, or absolute path of log file (or its pattern)
+     */
+    public String getLogName() {
+        if (logFiles == null) {
+            return logFile.toAbsolutePath().toString();
+        }
+        return logFiles.stream().map(file -> file.toAbsolutePath().toString()).collect(Collectors.joining(File.pathSeparator));
+    }
+
     public Path getReportFile() {
         return reportFile;
     }
@@ -26,10 +124,26 @@ public class InputData {
         return symbol;
     }
 
+    public String getSession() {
+        return session;
+    }
+
+    public void setSession(String session) {
+        this.session = session;
+    }
+
     public int getDepth() {
         return depth;
     }
 
+    public BookMode getBookMode() {
+        return bookMode;
+    }
+
+    public void setBookMode(BookMode bookMode) {
+        this.bookMode = bookMode;
+    }
+
     public LocalDateTime getStartTime() {
         return startTime;
     }
@@ -38,6 +152,136 @@ public class InputData {
         return endTime;
     }
 
+    public boolean isWarmUp() {
+        return isWarmUp;
+    }
+
+    public void setWarmUp(boolean warmUp) {
+        isWarmUp = warmUp;
+    }
+
+    public int getCheckpointInterval() {
+        return checkpointInterval;
+    }
+
+    public void setCheckpointInterval(int checkpointInterval) {
+        this.checkpointInterval = checkpointInterval;
+    }
+
+    /**
+     * @return true if report is written to gzip file (name ends with .gz)
+     */
+    public boolean isCompressedReport() {
+        return reportFile.getFileName().toString().endsWith(".gz");
+    }
+
+    /**
+     * @return file for checkpoints of report building, which is placed near report file
+     */
+    public Path getCheckpointFile() {
+        return reportFile.resolveSibling(reportFile.getFileName() + ".checkpoint");
+    }
+
+    public boolean isLatencyAnalytics() {
+        return isLatencyAnalytics;
+    }
+
+    public void setLatencyAnalytics(boolean latencyAnalytics) {
+        isLatencyAnalytics = latencyAnalytics;
+    }
+
+    /**
+     * @return CSV file for latency statistics, which is placed near report file
+     */
+    public Path getLatencyFile() {
+        return reportFile.resolveSibling(reportFile.getFileName() + ".latency.csv");
+    }
+
+    public boolean isMarketStats() {
+        return isMarketStats;
+    }
+
+    public void setMarketStats(boolean marketStats) {
+        isMarketStats = marketStats;
+    }
+
+    public Duration getStatsInterval() {
+        return statsInterval;
+    }
+
+    public void setStatsInterval(Duration statsInterval) {
+        this.statsInterval = statsInterval;
+    }
+
+    /**
+     * @return CSV file for market microstructure aggregates, which is placed near report file
+     */
+    public Path getStatsFile() {
+        return reportFile.resolveSibling(reportFile.getFileName() + ".stats.csv");
+    }
+
+    public boolean isCsvExport() {
+        return isCsvExport;
+    }
+
+    public void setCsvExport(boolean csvExport) {
+        isCsvExport = csvExport;
+    }
+
+    public boolean isColumnarExport() {
+        return isColumnarExport;
+    }
+
+    public void setColumnarExport(boolean columnarExport) {
+        isColumnarExport = columnarExport;
+    }
+
+    public int getRenderThreads() {
+        return renderThreads;
+    }
+
+    public void setRenderThreads(int renderThreads) {
+        this.renderThreads = renderThreads;
+    }
+
+    public Path getParseCacheDir() {
+        return parseCacheDir;
+    }
+
+    public void setParseCacheDir(Path parseCacheDir) {
+        this.parseCacheDir = parseCacheDir;
+    }
+
+    public long getParseCacheBytes() {
+        return parseCacheBytes;
+    }
+
+    public void setParseCacheBytes(long parseCacheBytes) {
+        this.parseCacheBytes = parseCacheBytes;
+    }
+
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    public void setMemoryBudget(long memoryBudget) {
+        this.memoryBudget = memoryBudget;
+    }
+
+    /**
+     * @return CSV export file, which is placed near report file
+     */
+    public Path getCsvFile() {
+        return reportFile.resolveSibling(reportFile.getFileName() + ".csv");
+    }
+
+    /**
+     * @return columnar export file, which is placed near report file
+     */
+    public Path getColumnarFile() {
+        return reportFile.resolveSibling(reportFile.getFileName() + ".columns");
+    }
+
     public InputData(Path logFile, Path reportFile, String symbol, int depth, LocalDateTime startTime, LocalDateTime endTime) {
 
         this.logFile = logFile;
@@ -52,11 +296,25 @@ public class InputData {
     public String toString() {
         return "InputData{" +
                 "logFile=" + logFile +
+                ", logFiles=" + logFiles +
                 ", reportFile=" + reportFile +
                 ", symbol='" + symbol + '\'' +
+                ", session=" + session +
                 ", depth=" + depth +
+                ", bookMode=" + bookMode +
                 ", startTime=" + startTime +
                 ", endTime=" + endTime +
+                ", isWarmUp=" + isWarmUp +
+                ", checkpointInterval=" + checkpointInterval +
+                ", isLatencyAnalytics=" + isLatencyAnalytics +
+                ", isMarketStats=" + isMarketStats +
+                ", statsInterval=" + statsInterval +
+                ", isCsvExport=" + isCsvExport +
+                ", isColumnarExport=" + isColumnarExport +
+                ", renderThreads=" + renderThreads +
+                ", parseCacheDir=" + parseCacheDir +
+                ", parseCacheBytes=" + parseCacheBytes +
+                ", memoryBudget=" + memoryBudget +
                 '}';
     }
 }
\ No newline at end of file
@@ -2,6 +2,7 @@ package com.hesky.bookmanager.controller;
 
 
 import com.hesky.bookmanager.BookManager;
+import com.hesky.bookmanager.model.BookMode;
 import javafx.application.Platform;
 import javafx.fxml.FXML;
 import javafx.fxml.Initializable;
@@ -11,6 +12,7 @@ import javafx.stage.FileChooser;
 import org.slf4j.Logger;
 
 import java.io.File;
+import java.io.IOException;
 import java.net.URL;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -20,11 +22,14 @@ import java.time.LocalDateTime;
 import java.time.LocalTime;
 import java.time.format.DateTimeFormatter;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Objects;
 import java.util.ResourceBundle;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.FutureTask;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
 import static org.slf4j.LoggerFactory.getLogger;
 
@@ -33,6 +38,8 @@ import static org.slf4j.LoggerFactory.getLogger;
  */
 public class MainController implements Initializable {
     private static final Logger LOG = getLogger(MainController.class);
+    private static final String TOP_OF_BOOK = "Top of Book";
+    private static final String FULL_BOOK = "Full book";
 
     @FXML
     private TextField logFileField;
@@ -43,6 +50,8 @@ public class MainController implements Initializable {
     @FXML
     private ChoiceBox<String> bookDepthChoiceBox;
     @FXML
+    private ChoiceBox<BookMode> bookModeChoiceBox;
+    @FXML
     private DatePicker dateField;
     @FXML
     private TextField startTimeField;
@@ -77,9 +86,9 @@ public class MainController implements Initializable {
         cancelButton.setOnAction(e -> shutdown());
 
         browseLogFileButton.setOnAction(e -> {
-            File file = getFileFromOpenDialog();
-            if (file != null) {
-                logFileField.setText(file.getAbsolutePath());
+            List<File> files = getFilesFromOpenDialog();
+            if (files != null) {
+                logFileField.setText(files.stream().map(File::getAbsolutePath).collect(Collectors.joining(File.pathSeparator)));
             }
         });
         browseReportFileButton.setOnAction(e -> {
@@ -119,8 +128,10 @@ public class MainController implements Initializable {
      */
     private void initInputFields() {
         symbolNameField.setText("EUR/USD");
-        bookDepthChoiceBox.getItems().addAll(Arrays.asList("Top of Book", "2", "3"));
+        bookDepthChoiceBox.getItems().addAll(Arrays.asList(TOP_OF_BOOK, "2", "3", "5", "10", "20", FULL_BOOK));
         bookDepthChoiceBox.getSelectionModel().select(1);
+        bookModeChoiceBox.getItems().addAll(BookMode.values());
+        bookModeChoiceBox.getSelectionModel().select(BookMode.ORDERS);
         logFileField.setText("E:\\axon-test\\market_data\\data.summary");
         reportFileField.setText("E:\\axon-test\\report2.html");
         dateField.setValue(LocalDate.of(2015, 3, 3));
@@ -204,22 +215,49 @@ public class MainController implements Initializable {
         statusLabel.setVisible(true);
     }
 
+    /**
+     * @param value chosen item of book depth
+     * @return number of book levels
+     */
+    private static int parseDepth(String value) {
+        if (TOP_OF_BOOK.equals(value)) {
+            return 1;
+        } else if (FULL_BOOK.equals(value)) {
+            return InputData.FULL_BOOK;
+        }
+        return Integer.parseInt(value);
+    }
+
     /**
      * Read and parse input data from input fields
      *
      * @return InputData object if all data from input fields was successfully parsed and collected into InputData
+     * @throws IOException if cannot list log files, which match pattern
      */
-    private InputData readInputData() {
-        Path logFile = Paths.get(logFileField.getText());
-        if (!Files.exists(logFile))
-            throw new RuntimeException("File: \'" + logFile.toString() + "\' was not found");
+    private InputData readInputData() throws IOException {
+        //several log files are separated by path separator, file name of single log file may be glob pattern
+        List<Path> logFiles = Arrays.stream(logFileField.getText().split(Pattern.quote(File.pathSeparator)))
+                .map(Paths::get)
+                .collect(Collectors.toList());
+        Path logFile = logFiles.get(0);
         Path reportFile = Paths.get(reportFileField.getText());
         String symbol = symbolNameField.getText();
-        int depth = bookDepthChoiceBox.getItems().indexOf(bookDepthChoiceBox.getValue()) + 1;
+        int depth = parseDepth(bookDepthChoiceBox.getValue());
         LocalDate date = dateField.getValue();
         LocalTime startTime = LocalTime.parse(startTimeField.getText(), DateTimeFormatter.ofPattern("HH:mm:ss"));
         LocalTime endTime = LocalTime.parse(endTimeField.getText(), DateTimeFormatter.ofPattern("HH:mm:ss"));
-        return new InputData(logFile, reportFile, symbol, depth, LocalDateTime.of(date, startTime), LocalDateTime.of(date, endTime));
+        InputData data = new InputData(logFile, reportFile, symbol, depth, LocalDateTime.of(date, startTime), LocalDateTime.of(date, endTime));
+        data.setBookMode(bookModeChoiceBox.getValue());
+        if (logFiles.size() > 1) {
+            data.setLogFiles(logFiles);
+        }
+        for (Path file : data.getLogFiles()) {
+            if (!Files.exists(file))
+                throw new RuntimeException("File: \'" + file.toString() + "\' was not found");
+        }
+        if (data.getLogFiles().isEmpty())
+            throw new RuntimeException("No files match: \'" + logFile.toString() + "\'");
+        return data;
     }
 
     /**
@@ -232,16 +270,16 @@ public class MainController implements Initializable {
     }
 
     /**
-     * Shows open dialog to select file and returns selected file or null if no file was selected
+     * Shows open dialog to select log files and returns selected files or null if no file was selected
      *
-     * @return file, which was selected by user
+     * @return files, which were selected by user
      */
-    private File getFileFromOpenDialog() {
+    private List<File> getFilesFromOpenDialog() {
         FileChooser chooser = new FileChooser();
-        chooser.setTitle("Select file");
-        File file = chooser.showOpenDialog(null);
-        if (file != null && file.exists()) {
-            return file;
+        chooser.setTitle("Select log files");
+        List<File> files = chooser.showOpenMultipleDialog(null);
+        if (files != null && !files.isEmpty() && files.stream().allMatch(File::exists)) {
+            return files;
         }
         return null;
     }
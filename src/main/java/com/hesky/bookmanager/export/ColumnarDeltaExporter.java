@@ -0,0 +1,148 @@
+package com.hesky.bookmanager.export;
+
+import com.hesky.bookmanager.model.Action;
+import com.hesky.bookmanager.model.Side;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Exports deltas to compact columnar binary file. Rows are grouped into blocks, each column of block is encoded separately:
+ * <ul>
+ * <li>number, time and id - zigzag varint of difference with previous row of block</li>
+ * <li>kind, action and side - one byte code from dictionary in file header (0 means absent value)</li>
+ * <li>price - 8 bytes IEEE 754</li>
+ * <li>size and level - zigzag varint</li>
+ * </ul>
+ * File layout: header (magic, version, dictionaries), blocks (row count, then length and bytes of each column), 0 as end marker.
+ * File is read by {@link ColumnarDeltaReader}
+ */
+public class ColumnarDeltaExporter extends DeltaExporter {
+    static final int MAGIC = 0x424D4331;
+    static final byte VERSION = 1;
+    static final int COLUMNS = 9;
+    private static final int BLOCK_ROWS = 1 << 16;
+
+    private final DataOutputStream out;
+    private final ColumnBuffer numbers = new ColumnBuffer();
+    private final ColumnBuffer times = new ColumnBuffer();
+    private final ColumnBuffer kinds = new ColumnBuffer();
+    private final ColumnBuffer actions = new ColumnBuffer();
+    private final ColumnBuffer sides = new ColumnBuffer();
+    private final ColumnBuffer ids = new ColumnBuffer();
+    private final ColumnBuffer prices = new ColumnBuffer();
+    private final ColumnBuffer sizes = new ColumnBuffer();
+    private final ColumnBuffer levels = new ColumnBuffer();
+    private int rows;
+    //previous values of delta encoded columns in current block
+    private long prevNumber;
+    private long prevTime;
+    private long prevId;
+
+    /**
+     * @param file columnar file
+     * @throws IOException if cannot create file
+     */
+    public ColumnarDeltaExporter(Path file) throws IOException {
+        this.out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 1 << 16));
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        writeDictionary(Kind.values());
+        writeDictionary(Action.values());
+        writeDictionary(Side.values());
+    }
+
+    private void writeDictionary(Enum<?>[] values) throws IOException {
+        out.writeByte(values.length);
+        for (Enum<?> value : values) {
+            out.writeUTF(value.name());
+        }
+    }
+
+    @Override
+    protected void writeRow(int number, long time, Kind kind, Action action, Side side, long id, double price, long size, int level) throws IOException {
+        numbers.putZigZag(number - prevNumber);
+        times.putZigZag(time - prevTime);
+        kinds.put(kind.ordinal() + 1);
+        actions.put(action == null ? 0 : action.ordinal() + 1);
+        sides.put(side == null ? 0 : side.ordinal() + 1);
+        ids.putZigZag(id - prevId);
+        prices.putDouble(price);
+        sizes.putZigZag(size);
+        levels.putZigZag(level);
+        prevNumber = number;
+        prevTime = time;
+        prevId = id;
+        if (++rows == BLOCK_ROWS) {
+            flushBlock();
+        }
+    }
+
+    private void flushBlock() throws IOException {
+        if (rows == 0) {
+            return;
+        }
+        out.writeInt(rows);
+        for (ColumnBuffer column : new ColumnBuffer[]{numbers, times, kinds, actions, sides, ids, prices, sizes, levels}) {
+            out.writeInt(column.size);
+            out.write(column.bytes, 0, column.size);
+            column.size = 0;
+        }
+        rows = 0;
+        prevNumber = 0;
+        prevTime = 0;
+        prevId = 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flushBlock();
+            out.writeInt(0);
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Growable byte buffer of one column
+     */
+    private static class ColumnBuffer {
+        private byte[] bytes = new byte[1024];
+        private int size;
+
+        void put(int value) {
+            ensureCapacity(1);
+            bytes[size++] = (byte) value;
+        }
+
+        void putZigZag(long value) {
+            ensureCapacity(10);
+            long v = (value << 1) ^ (value >> 63);
+            while ((v & ~0x7FL) != 0) {
+                bytes[size++] = (byte) ((v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            bytes[size++] = (byte) v;
+        }
+
+        void putDouble(double value) {
+            ensureCapacity(8);
+            long bits = Double.doubleToRawLongBits(value);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                bytes[size++] = (byte) (bits >>> shift);
+            }
+        }
+
+        private void ensureCapacity(int extra) {
+            if (size + extra > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + extra));
+            }
+        }
+    }
+}
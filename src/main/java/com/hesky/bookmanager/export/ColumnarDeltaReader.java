@@ -0,0 +1,192 @@
+package com.hesky.bookmanager.export;
+
+import com.hesky.bookmanager.model.Action;
+import com.hesky.bookmanager.model.Side;
+
+import java.io.*;
+import java.lang.reflect.Array;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Reads file written by {@link ColumnarDeltaExporter} block by block. Arrays of columns are reused between blocks
+ */
+public class ColumnarDeltaReader implements Closeable {
+    private final DataInputStream in;
+    private final DeltaExporter.Kind[] kindDictionary;
+    private final Action[] actionDictionary;
+    private final Side[] sideDictionary;
+
+    private int rows;
+    private int[] numbers = new int[0];
+    private long[] times = new long[0];
+    private DeltaExporter.Kind[] kinds = new DeltaExporter.Kind[0];
+    private Action[] actions = new Action[0];
+    private Side[] sides = new Side[0];
+    private long[] ids = new long[0];
+    private double[] prices = new double[0];
+    private long[] sizes = new long[0];
+    private int[] levels = new int[0];
+
+    /**
+     * @param file columnar file
+     * @throws IOException if cannot read file or file has unknown format
+     */
+    public ColumnarDeltaReader(Path file) throws IOException {
+        this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16));
+        if (in.readInt() != ColumnarDeltaExporter.MAGIC || in.readByte() != ColumnarDeltaExporter.VERSION) {
+            in.close();
+            throw new IOException("Unknown format of file " + file);
+        }
+        kindDictionary = readDictionary(DeltaExporter.Kind.class);
+        actionDictionary = readDictionary(Action.class);
+        sideDictionary = readDictionary(Side.class);
+    }
+
+    private <T extends Enum<T>> T[] readDictionary(Class<T> type) throws IOException {
+        int size = in.readUnsignedByte();
+        @SuppressWarnings("unchecked")
+        T[] dictionary = (T[]) Array.newInstance(type, size);
+        for (int i = 0; i < size; i++) {
+            dictionary[i] = Enum.valueOf(type, in.readUTF());
+        }
+        return dictionary;
+    }
+
+    /**
+     * Reads next block of rows
+     *
+     * @return true if block was read and false if end of file was reached
+     * @throws IOException if cannot read file
+     */
+    public boolean nextBlock() throws IOException {
+        rows = in.readInt();
+        if (rows == 0) {
+            return false;
+        }
+        if (numbers.length < rows) {
+            numbers = new int[rows];
+            times = new long[rows];
+            kinds = new DeltaExporter.Kind[rows];
+            actions = new Action[rows];
+            sides = new Side[rows];
+            ids = new long[rows];
+            prices = new double[rows];
+            sizes = new long[rows];
+            levels = new int[rows];
+        }
+        byte[][] columns = new byte[ColumnarDeltaExporter.COLUMNS][];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = new byte[in.readInt()];
+            in.readFully(columns[i]);
+        }
+        Cursor number = new Cursor(columns[0]);
+        Cursor time = new Cursor(columns[1]);
+        Cursor id = new Cursor(columns[5]);
+        Cursor price = new Cursor(columns[6]);
+        Cursor size = new Cursor(columns[7]);
+        Cursor level = new Cursor(columns[8]);
+        long prevNumber = 0;
+        long prevTime = 0;
+        long prevId = 0;
+        for (int row = 0; row < rows; row++) {
+            prevNumber += number.zigZag();
+            prevTime += time.zigZag();
+            prevId += id.zigZag();
+            numbers[row] = (int) prevNumber;
+            times[row] = prevTime;
+            ids[row] = prevId;
+            kinds[row] = decode(kindDictionary, columns[2][row]);
+            actions[row] = decode(actionDictionary, columns[3][row]);
+            sides[row] = decode(sideDictionary, columns[4][row]);
+            prices[row] = price.doubleValue();
+            sizes[row] = size.zigZag();
+            levels[row] = (int) level.zigZag();
+        }
+        return true;
+    }
+
+    private static <T> T decode(T[] dictionary, byte code) {
+        return code == 0 ? null : dictionary[code - 1];
+    }
+
+    /**
+     * @return number of rows in current block; arrays of columns may be longer
+     */
+    public int getRows() {
+        return rows;
+    }
+
+    public int[] getNumbers() {
+        return numbers;
+    }
+
+    public long[] getTimes() {
+        return times;
+    }
+
+    public DeltaExporter.Kind[] getKinds() {
+        return kinds;
+    }
+
+    public Action[] getActions() {
+        return actions;
+    }
+
+    public Side[] getSides() {
+        return sides;
+    }
+
+    public long[] getIds() {
+        return ids;
+    }
+
+    public double[] getPrices() {
+        return prices;
+    }
+
+    public long[] getSizes() {
+        return sizes;
+    }
+
+    public int[] getLevels() {
+        return levels;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    /**
+     * Sequential decoder of column bytes
+     */
+    private static class Cursor {
+        private final byte[] bytes;
+        private int position;
+
+        Cursor(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        long zigZag() {
+            long value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = bytes[position++];
+                value |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        double doubleValue() {
+            long bits = 0;
+            for (int i = 0; i < 8; i++) {
+                bits = (bits << 8) | (bytes[position++] & 0xFF);
+            }
+            return Double.longBitsToDouble(bits);
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.hesky.bookmanager.export;
+
+import com.hesky.bookmanager.model.Action;
+import com.hesky.bookmanager.model.Side;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Exports deltas to CSV file with one row per input order, book change and book level
+ */
+public class CsvDeltaExporter extends DeltaExporter {
+    private static final String HEADER = "number,time_us,kind,action,side,id,price,size,level";
+
+    private final Writer writer;
+    private final StringBuilder row = new StringBuilder(96);
+
+    /**
+     * @param file CSV file
+     * @throws IOException if cannot create file
+     */
+    public CsvDeltaExporter(Path file) throws IOException {
+        this.writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8);
+        writer.write(HEADER);
+        writer.write('\n');
+    }
+
+    @Override
+    protected void writeRow(int number, long time, Kind kind, Action action, Side side, long id, double price, long size, int level) throws IOException {
+        row.setLength(0);
+        row.append(number).append(',')
+                .append(time).append(',')
+                .append(kind).append(',')
+                .append(action == null ? "" : action.name()).append(',')
+                .append(side == null ? "" : side.name()).append(',')
+                .append(id).append(',')
+                .append(price).append(',')
+                .append(size).append(',')
+                .append(level).append('\n');
+        writer.append(row);
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+}
@@ -0,0 +1,75 @@
+package com.hesky.bookmanager.export;
+
+import com.hesky.bookmanager.DeltaListener;
+import com.hesky.bookmanager.model.*;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Exports each delta as flat rows: input orders, book changes and book levels.
+ * Subclasses define format of rows
+ */
+public abstract class DeltaExporter implements DeltaListener {
+
+    /**
+     * Kind of exported row
+     */
+    public enum Kind {
+        //order from input FIX message
+        INPUT,
+        //change of depth-limited book
+        CHANGE,
+        //level of depth-limited book after message
+        LEVEL
+    }
+
+    @Override
+    public void onDelta(Delta delta) throws IOException {
+        int number = delta.getNumber();
+        long time = toMicros(delta.getEndDateTime());
+        for (Delta.Entry entry : delta.getInputOrders()) {
+            writeRow(number, time, Kind.INPUT, entry.getAction(), entry.getSide(), entry.getId(), entry.getPrice(), entry.getSize(), 0);
+        }
+        for (Delta.Entry entry : delta.getBookChanges()) {
+            writeRow(number, time, Kind.CHANGE, entry.getAction(), entry.getSide(), entry.getId(), entry.getPrice(), entry.getSize(), 0);
+        }
+        Book book = delta.getBook();
+        writeLevels(number, time, Side.BID, book.getBids().values(), Comparator.comparing(Order::getPrice).reversed());
+        writeLevels(number, time, Side.ASK, book.getOffers().values(), Comparator.comparing(Order::getPrice));
+    }
+
+    private void writeLevels(int number, long time, Side side, Collection<Order> orders, Comparator<Order> bestFirst) throws IOException {
+        List<Order> sorted = new ArrayList<>(orders);
+        sorted.sort(bestFirst);
+        int level = 1;
+        for (Order order : sorted) {
+            writeRow(number, time, Kind.LEVEL, null, side, order.getId(), order.getPrice(), order.getSize(), level++);
+        }
+    }
+
+    /**
+     * Writes one row
+     *
+     * @param number message sequence number
+     * @param time   time of incremental update (epoch micros, UTC)
+     * @param kind   kind of row
+     * @param action action of order or null for book levels
+     * @param side   side of order or null if it is unknown (e.g. for input delete)
+     * @param id     order id
+     * @param price  order price
+     * @param size   order size
+     * @param level  book level starting from 1 (0 if row is not a book level)
+     * @throws IOException if cannot write row
+     */
+    protected abstract void writeRow(int number, long time, Kind kind, Action action, Side side, long id, double price, long size, int level) throws IOException;
+
+    static long toMicros(LocalDateTime time) {
+        return time.toEpochSecond(ZoneOffset.UTC) * 1_000_000 + time.getNano() / 1_000;
+    }
+}
@@ -5,7 +5,9 @@ import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 /**
- * Represents storage of {@link com.hesky.bookmanager.model.Order} market offers and bids
+ * Represents storage of {@link com.hesky.bookmanager.model.Order} market offers and bids.
+ * Book is modified only by {@link #add(Order)}, {@link #change(Order)}, {@link #delete(Long)}, {@link #load(Collection)} and
+ * {@link #reset()}, so that index of orders and price levels are always up to date; maps of bids and offers are read-only views
  */
 public class Book {
     //trading symbol
@@ -14,6 +16,12 @@ public class Book {
     private Map<Long, Order> bids = new HashMap<>();
     //list of offers (key=id of offer)
     private Map<Long, Order> offers = new HashMap<>();
+    //index of all orders (key=id of order), order keeps its side and price
+    private Map<Long, Order> orders = new HashMap<>();
+    //price levels of bids from the best price (key=price)
+    private TreeMap<Double, PriceLevel> bidLevels = new TreeMap<>(Comparator.reverseOrder());
+    //price levels of offers from the best price
+    private TreeMap<Double, PriceLevel> offerLevels = new TreeMap<>();
 
     public Book() {
     }
@@ -22,6 +30,20 @@ public class Book {
         this.symbol = symbol;
     }
 
+    /**
+     * Creates book with maps, which hold expected number of orders without resizing
+     */
+    private Book(String symbol, int bidCount, int offerCount) {
+        this.symbol = symbol;
+        this.bids = new HashMap<>(capacityFor(bidCount));
+        this.offers = new HashMap<>(capacityFor(offerCount));
+        this.orders = new HashMap<>(capacityFor(bidCount + offerCount));
+    }
+
+    private static int capacityFor(int size) {
+        return (int) (size / 0.75f) + 1;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -43,12 +65,21 @@ public class Book {
      * @return new Book with orders that are present in this book
      */
     public Book copy() {
-        Book book = new Book(this.getSymbol());
-        book.getOffers().putAll(this.getOffers());
-        book.getBids().putAll(this.getBids());
+        Book book = new Book(this.getSymbol(), bids.size(), offers.size());
+        book.offers.putAll(this.offers);
+        book.bids.putAll(this.bids);
+        book.orders.putAll(this.orders);
+        copyLevels(bidLevels, book.bidLevels);
+        copyLevels(offerLevels, book.offerLevels);
         return book;
     }
 
+    private static void copyLevels(TreeMap<Double, PriceLevel> from, TreeMap<Double, PriceLevel> to) {
+        for (PriceLevel level : from.values()) {
+            to.put(level.getPrice(), new PriceLevel(level));
+        }
+    }
+
     /**
      * Returns true if Book contains {@code order}, otherwise return false
      * @param order Order, that should be found
@@ -68,7 +99,9 @@ public class Book {
      * @param bids Collection of bids
      */
     public void putBids(Collection<Order> bids) {
-        this.bids.putAll(bids.stream().collect(Collectors.toMap(Order::getId, order -> order)));
+        for (Order bid : bids) {
+            add(bid);
+        }
     }
 
     /**
@@ -92,21 +125,60 @@ public class Book {
      * @param offers Collection of offers
      */
     public void putOffers(Collection<Order> offers) {
-        this.offers.putAll(offers.stream().collect(Collectors.toMap(Order::getId, order -> order)));
+        for (Order offer : offers) {
+            add(offer);
+        }
     }
 
     /**
-     * Deletes order by id
+     * Deletes order by id. Side of order is found by one lookup in index of orders
      * @param orderId Order id
      * @return removed Order or null if not exist
      */
     public Order delete(Long orderId) {
-        if (bids.containsKey(orderId)) {
-            return bids.remove(orderId);
-        } else if (offers.containsKey(orderId)) {
-            return offers.remove(orderId);
+        Order order = orders.remove(orderId);
+        if (order == null) {
+            return null;
         }
-        return null;
+        removeFromLevel(order);
+        return (order.getSide() == Side.BID ? bids : offers).remove(orderId);
+    }
+
+    /**
+     * Replaces all orders of book by {@code orders} in one bulk operation (e.g. full refresh of book)
+     * @param allOrders all orders of book
+     */
+    public void load(Collection<Order> allOrders) {
+        int capacity = capacityFor(allOrders.size());
+        this.bids = new HashMap<>(capacity);
+        this.offers = new HashMap<>(capacity);
+        this.orders = new HashMap<>(capacity);
+        bidLevels.clear();
+        offerLevels.clear();
+        for (Order order : allOrders) {
+            add(order);
+        }
+    }
+
+    /**
+     * Replaces order with the same id by {@code order} (e.g. price or size was changed).
+     * Order with the same price keeps its place in price level, order with other price is moved to the end of new level.
+     * Previous Order object is not modified, because it may be shared with copies of book
+     * @param order new state of order
+     * @return previous state of order or null if book did not contain order with such id
+     */
+    public Order change(Order order) {
+        Order previous = get(order.getId());
+        add(order);
+        return previous;
+    }
+
+    /**
+     * @param orderId Order id
+     * @return order with {@code orderId} or null if not exist
+     */
+    public Order get(Long orderId) {
+        return orders.get(orderId);
     }
 
     /**
@@ -115,6 +187,9 @@ public class Book {
     public void reset() {
         bids.clear();
         offers.clear();
+        orders.clear();
+        bidLevels.clear();
+        offerLevels.clear();
     }
 
     public String getSymbol() {
@@ -125,42 +200,274 @@ public class Book {
         this.symbol = symbol;
     }
 
+    /**
+     * @return read-only view of bids (key=id of bid)
+     */
     public Map<Long, Order> getBids() {
+        return Collections.unmodifiableMap(bids);
+    }
 
-        return bids;
+    /**
+     * @return read-only view of offers (key=id of offer)
+     */
+    public Map<Long, Order> getOffers() {
+        return Collections.unmodifiableMap(offers);
     }
 
-    public void setBids(Map<Long, Order> bids) {
-        this.bids = bids;
+    private TreeMap<Double, PriceLevel> levelsOf(Side side) {
+        return side == Side.BID ? bidLevels : offerLevels;
     }
 
-    public Map<Long, Order> getOffers() {
-        return offers;
+    private void addToLevel(Order order) {
+        TreeMap<Double, PriceLevel> levels = levelsOf(order.getSide());
+        //no capturing lambda per added order
+        PriceLevel level = levels.get(order.getPrice());
+        if (level == null) {
+            level = new PriceLevel(order.getSide(), order.getPrice());
+            levels.put(order.getPrice(), level);
+        }
+        level.add(order);
     }
 
-    public void setOffers(Map<Long, Order> offers) {
-        this.offers = offers;
+    private void removeFromLevel(Order order) {
+        TreeMap<Double, PriceLevel> levels = levelsOf(order.getSide());
+        PriceLevel level = levels.get(order.getPrice());
+        if (level != null && level.remove(order.getId()) != null && level.isEmpty()) {
+            levels.remove(order.getPrice());
+        }
     }
 
     /**
-     * Creates new book(snapshot) of this book by limiting number of Orders (Bids and Orders)
+     * Creates new book(snapshot) of this book by limiting number of Orders (Bids and Orders).
+     * Orders are taken from the best price levels, so cost depends on {@code depth} and not on size of book
      * @param depth quantity of levels which should be present in new book
      * @return new Book with limited by {@code depth} number of offers and bids
      */
     public Book getFirstLevels(int depth) {
-        Book book = new Book();
-        book.setBids(bids.values().stream()
-                .sorted(Comparator.comparing(Order::getPrice).reversed())
-                .limit(depth)
-                .collect(Collectors.toMap(Order::getId, Order::new)));
-        book.setOffers(offers.values().stream()
-                .sorted(Comparator.comparing(Order::getPrice))
-                .limit(depth)
-                .collect(Collectors.toMap(Order::getId, Order::new)));
-        book.setSymbol(this.getSymbol());
+        Book book = new Book(this.getSymbol(), Math.min(depth, bids.size()), Math.min(depth, offers.size()));
+        addFirstOrders(bidLevels, depth, book);
+        addFirstOrders(offerLevels, depth, book);
+        return book;
+    }
+
+    /**
+     * Creates new book(snapshot) of this book, where each of the best {@code depth} price levels is one order with total size of level
+     * @param depth quantity of price levels which should be present in new book
+     * @return new Book with limited by {@code depth} number of bid and offer levels
+     * @see PriceLevel#toOrder()
+     */
+    public Book getFirstPriceLevels(int depth) {
+        Book book = new Book(this.getSymbol(), Math.min(depth, bidLevels.size()), Math.min(depth, offerLevels.size()));
+        addFirstPriceLevels(bidLevels, depth, book);
+        addFirstPriceLevels(offerLevels, depth, book);
         return book;
     }
 
+    private static void addFirstPriceLevels(TreeMap<Double, PriceLevel> levels, int depth, Book book) {
+        int count = 0;
+        for (PriceLevel level : levels.values()) {
+            if (count++ == depth) {
+                return;
+            }
+            book.add(level.toOrder());
+        }
+    }
+
+    /**
+     * @param depth number of orders or price levels
+     * @param mode  view of book
+     * @return snapshot of this book
+     */
+    public Book getSnapshot(int depth, BookMode mode) {
+        return mode == BookMode.LEVELS ? getFirstPriceLevels(depth) : getFirstLevels(depth);
+    }
+
+    /**
+     * Brings {@code snapshot}, which was taken by {@link #getSnapshot(int, BookMode)} before this book was modified, up to date.
+     * Only touched levels inside snapshot and levels at its end are rebuilt, so cost does not depend on size of book
+     * @param snapshot      snapshot of this book, which is updated in place
+     * @param depth         number of orders or price levels of snapshot
+     * @param mode          view of book in snapshot
+     * @param touchedBids   prices of bids, which were added, changed or removed since snapshot was taken
+     * @param touchedOffers prices of offers, which were added, changed or removed since snapshot was taken
+     * @param changes       receives previous state of each changed or removed order of snapshot and null for each added order (key=id);
+     *                      orders, which were replaced by equal orders, are not received
+     */
+    public void updateSnapshot(Book snapshot, int depth, BookMode mode, Set<Double> touchedBids, Set<Double> touchedOffers, Map<Long, Order> changes) {
+        boolean isLevels = mode == BookMode.LEVELS;
+        //order, which moved to other side, changes both sides, so ends of snapshot are taken before update
+        Double lastBid = snapshot.lastPrice(Side.BID, depth, isLevels);
+        Double lastOffer = snapshot.lastPrice(Side.ASK, depth, isLevels);
+        updateSnapshot(snapshot, Side.BID, depth, isLevels, touchedBids, lastBid, changes);
+        updateSnapshot(snapshot, Side.ASK, depth, isLevels, touchedOffers, lastOffer, changes);
+        changes.entrySet().removeIf(change -> Objects.equals(change.getValue(), snapshot.get(change.getKey())));
+    }
+
+    /**
+     * @return price of the last level of full snapshot, levels after it are out of snapshot; null if snapshot has all orders of side
+     */
+    private Double lastPrice(Side side, int depth, boolean isLevels) {
+        return count(side, isLevels) < depth || levelsOf(side).isEmpty() ? null : levelsOf(side).lastKey();
+    }
+
+    private void updateSnapshot(Book snapshot, Side side, int depth, boolean isLevels, Set<Double> touched, Double last, Map<Long, Order> changes) {
+        TreeMap<Double, PriceLevel> levels = levelsOf(side);
+        TreeMap<Double, PriceLevel> snapshotLevels = snapshot.levelsOf(side);
+        for (Double price : touched) {
+            if (last == null || !isWorse(side, price, last)) {
+                snapshot.replaceLevel(side, price, levels.get(price), isLevels, changes);
+            }
+        }
+        //the worst orders are moved out of overfilled snapshot
+        int excess = snapshot.count(side, isLevels) - depth;
+        while (excess > 0) {
+            PriceLevel level = snapshotLevels.lastEntry().getValue();
+            if (isLevels || level.getOrderCount() <= excess) {
+                excess -= isLevels ? 1 : level.getOrderCount();
+                snapshot.removeLevel(level, changes);
+            } else {
+                List<Long> removed = new ArrayList<>(excess);
+                int skipped = level.getOrderCount() - excess;
+                for (Order order : level.getOrders()) {
+                    if (skipped-- <= 0) {
+                        removed.add(order.getId());
+                    }
+                }
+                for (Long id : removed) {
+                    snapshot.remove(id, changes);
+                }
+                excess = 0;
+            }
+        }
+        //the next orders of book fill snapshot, which is not full
+        int missing = depth - snapshot.count(side, isLevels);
+        if (missing <= 0 || snapshot.count(side, isLevels) == count(side, isLevels)) {
+            return;
+        }
+        Collection<PriceLevel> next = levels.values();
+        if (!snapshotLevels.isEmpty()) {
+            Map.Entry<Double, PriceLevel> lastLevel = snapshotLevels.lastEntry();
+            next = levels.tailMap(lastLevel.getKey(), false).values();
+            //snapshot may end in the middle of level, when it is limited by number of orders
+            PriceLevel level = levels.get(lastLevel.getKey());
+            if (!isLevels && level != null) {
+                int skipped = lastLevel.getValue().getOrderCount();
+                for (Order order : level.getOrders()) {
+                    if (skipped-- > 0) {
+                        continue;
+                    }
+                    if (missing-- == 0) {
+                        return;
+                    }
+                    snapshot.put(new Order(order), changes);
+                }
+            }
+        }
+        for (PriceLevel level : next) {
+            if (isLevels) {
+                if (missing-- == 0) {
+                    return;
+                }
+                snapshot.put(level.toOrder(), changes);
+                continue;
+            }
+            for (Order order : level.getOrders()) {
+                if (missing-- == 0) {
+                    return;
+                }
+                snapshot.put(new Order(order), changes);
+            }
+        }
+    }
+
+    private static boolean isWorse(Side side, Double price, Double other) {
+        return side == Side.BID ? price < other : price > other;
+    }
+
+    /**
+     * @return number of orders or price levels of {@code side}
+     */
+    private int count(Side side, boolean isLevels) {
+        return isLevels ? levelsOf(side).size() : (side == Side.BID ? bids : offers).size();
+    }
+
+    /**
+     * Replaces orders of snapshot at {@code price} by orders of {@code level} of book
+     * @param level level of book or null if book has no orders at {@code price}
+     */
+    private void replaceLevel(Side side, Double price, PriceLevel level, boolean isLevels, Map<Long, Order> changes) {
+        PriceLevel replaced = levelsOf(side).get(price);
+        if (isLevels) {
+            if (level != null) {
+                put(level.toOrder(), changes);
+            } else if (replaced != null) {
+                removeLevel(replaced, changes);
+            }
+            return;
+        }
+        //orders are added again in order of book level
+        if (replaced != null) {
+            removeLevel(replaced, changes);
+        }
+        if (level != null) {
+            for (Order order : level.getOrders()) {
+                put(new Order(order), changes);
+            }
+        }
+    }
+
+    private void removeLevel(PriceLevel level, Map<Long, Order> changes) {
+        List<Long> ids = new ArrayList<>(level.getOrderCount());
+        for (Order order : level.getOrders()) {
+            ids.add(order.getId());
+        }
+        for (Long id : ids) {
+            remove(id, changes);
+        }
+    }
+
+    private void put(Order order, Map<Long, Order> changes) {
+        if (!changes.containsKey(order.getId())) {
+            changes.put(order.getId(), orders.get(order.getId()));
+        }
+        add(order);
+    }
+
+    private void remove(Long orderId, Map<Long, Order> changes) {
+        Order removed = delete(orderId);
+        if (removed != null && !changes.containsKey(orderId)) {
+            changes.put(orderId, removed);
+        }
+    }
+
+    /**
+     * @param price price of order
+     * @return true if book has bids or offers with {@code price}
+     */
+    public boolean hasPrice(Double price) {
+        return bidLevels.containsKey(price) || offerLevels.containsKey(price);
+    }
+
+    /**
+     * @param side side of book
+     * @return price levels of {@code side} from the best price; levels are updated when book is modified
+     */
+    public Collection<PriceLevel> getPriceLevels(Side side) {
+        return Collections.unmodifiableCollection(levelsOf(side).values());
+    }
+
+    private static void addFirstOrders(TreeMap<Double, PriceLevel> levels, int depth, Book book) {
+        int count = 0;
+        for (PriceLevel level : levels.values()) {
+            for (Order order : level.getOrders()) {
+                if (count++ == depth) {
+                    return;
+                }
+                book.add(new Order(order));
+            }
+        }
+    }
+
     /**
      * Add new order to book
      * @param order Order that should be added to book
@@ -173,5 +480,19 @@ public class Book {
         } else {
             throw new IllegalArgumentException("Order has no side! " + order);
         }
+        Order replaced = orders.put(order.getId(), order);
+        if (replaced != null && replaced.getSide() == order.getSide() && replaced.getPrice().equals(order.getPrice())) {
+            //order keeps its place in queue of level, when only size is changed
+            levelsOf(order.getSide()).get(order.getPrice()).add(order);
+            return;
+        }
+        if (replaced != null) {
+            removeFromLevel(replaced);
+            //order with the same id moved to other side
+            if (replaced.getSide() != order.getSide()) {
+                (replaced.getSide() == Side.BID ? bids : offers).remove(order.getId());
+            }
+        }
+        addToLevel(order);
     }
 }
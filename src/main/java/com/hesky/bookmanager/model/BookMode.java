@@ -0,0 +1,11 @@
+package com.hesky.bookmanager.model;
+
+/**
+ * View of book in snapshots and report
+ */
+public enum BookMode {
+    //depth is number of orders on each side, each order is shown
+    ORDERS,
+    //depth is number of price levels on each side, each level is shown as one order with total size
+    LEVELS
+}
@@ -1,7 +1,7 @@
 package com.hesky.bookmanager.model;
 
-import java.time.Duration;
 import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.List;
@@ -12,6 +12,9 @@ import java.util.stream.Collectors;
  * Piece of report, that includes all data needed for creating record in report for one message
  */
 public class Delta {
+    private static final long NANOS_PER_DAY = 86_400_000_000_000L;
+    private static final long NANOS_PER_MILLI = 1_000_000L;
+
     /**
      * Message sequence number
      */
@@ -22,9 +25,17 @@ public class Delta {
      */
     private List<Entry> inputOrders = new ArrayList<>();
     /**
-     * Snapshot of Order's book (after adding and removing all input orders), that should be displayed
+     * Snapshot of Order's book (after adding and removing all input orders), that should be displayed; null when snapshot is kept in {@link #journal}
      */
     private Book book;
+    /**
+     * Journal, which stores snapshot of this delta in compact form
+     */
+    private SnapshotJournal journal;
+    /**
+     * Index of snapshot in {@link #journal}
+     */
+    private int journalIndex;
     /**
      * List of changes occurred in book in comparison to book in previous Delta
      */
@@ -37,6 +48,10 @@ public class Delta {
      * Time of sending response (market data incremental update 35=x) to current market data request
      */
     private LocalDateTime endDateTime;
+    /**
+     * Time of writing message to log (prefix of log line), or null if it is unknown
+     */
+    private LocalDateTime logDateTime;
 
     /**
      * Indicating appearing of new market data request 35=v, that forces to reset current book
@@ -75,18 +90,31 @@ public class Delta {
      * @return list of all bids sorted by price desc
      */
     public List<Order> getBids() {
-        return book.getBids().values().stream().sorted(Comparator.comparing(Order::getPrice)).collect(Collectors.toList());
+        return getBook().getBids().values().stream().sorted(Comparator.comparing(Order::getPrice)).collect(Collectors.toList());
     }
 
     /**
      * @return list of all offers sorted by price asc
      */
     public List<Order> getOffers() {
-        return book.getOffers().values().stream().sorted(Comparator.comparing(Order::getPrice).reversed()).collect(Collectors.toList());
+        return getBook().getOffers().values().stream().sorted(Comparator.comparing(Order::getPrice).reversed()).collect(Collectors.toList());
     }
 
+    /**
+     * @return time between market data request and incremental update in milliseconds
+     */
     public int getDifference() {
-        return (int) Duration.between(startDateTime, endDateTime).toMillis();
+        //computed from epoch days and nanos of day without creating Duration
+        long days = endDateTime.toLocalDate().toEpochDay() - startDateTime.toLocalDate().toEpochDay();
+        long nanos = endDateTime.toLocalTime().toNanoOfDay() - startDateTime.toLocalTime().toNanoOfDay();
+        return (int) ((days * NANOS_PER_DAY + nanos) / NANOS_PER_MILLI);
+    }
+
+    /**
+     * @return time between market data request and incremental update in microseconds
+     */
+    public long getDifferenceMicros() {
+        return ChronoUnit.MICROS.between(startDateTime, endDateTime);
     }
 
     public List<Entry> getInputOrders() {
@@ -97,12 +125,42 @@ public class Delta {
         this.inputOrders = inputOrders;
     }
 
+    /**
+     * @return snapshot of book, which is rebuilt from journal if this delta does not keep it itself
+     */
     public Book getBook() {
+        if (book == null && journal != null) {
+            return journal.get(journalIndex);
+        }
         return book;
     }
 
     public void setBook(Book book) {
         this.book = book;
+        this.journal = null;
+    }
+
+    /**
+     * @return journal, which stores snapshot of this delta, or null if delta keeps snapshot itself
+     */
+    public SnapshotJournal getJournal() {
+        return journal;
+    }
+
+    public int getJournalIndex() {
+        return journalIndex;
+    }
+
+    /**
+     * Sets snapshot of book, which is stored in {@code journal}
+     *
+     * @param journal journal of snapshots
+     * @param index   index of snapshot in journal
+     */
+    public void setBook(SnapshotJournal journal, int index) {
+        this.book = null;
+        this.journal = journal;
+        this.journalIndex = index;
     }
 
     public List<Entry> getBookChanges() {
@@ -129,6 +187,14 @@ public class Delta {
         this.endDateTime = endDateTime;
     }
 
+    public LocalDateTime getLogDateTime() {
+        return logDateTime;
+    }
+
+    public void setLogDateTime(LocalDateTime logDateTime) {
+        this.logDateTime = logDateTime;
+    }
+
     /**
      * Represents order with action( NEW ,DELETE ,UPDATE) to show in report
      */
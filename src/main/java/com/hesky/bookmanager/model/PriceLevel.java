@@ -0,0 +1,97 @@
+package com.hesky.bookmanager.model;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Orders of one side of book with the same price. Total size and number of orders are updated on each adding and removing of order
+ */
+public class PriceLevel {
+    private final Side side;
+    private final Double price;
+    //orders of level in order of adding (key=id of order)
+    private final Map<Long, Order> orders = new LinkedHashMap<>();
+    private long totalSize;
+
+    public PriceLevel(Side side, Double price) {
+        this.side = side;
+        this.price = price;
+    }
+
+    /**
+     * Copy of level with the same orders
+     * @param level level, that should be copied
+     */
+    public PriceLevel(PriceLevel level) {
+        this(level.side, level.price);
+        this.orders.putAll(level.orders);
+        this.totalSize = level.totalSize;
+    }
+
+    void add(Order order) {
+        Order replaced = orders.put(order.getId(), order);
+        if (replaced != null) {
+            totalSize -= replaced.getSize();
+        }
+        totalSize += order.getSize();
+    }
+
+    /**
+     * @return removed order or null if level does not contain order with {@code orderId}
+     */
+    Order remove(Long orderId) {
+        Order order = orders.remove(orderId);
+        if (order != null) {
+            totalSize -= order.getSize();
+        }
+        return order;
+    }
+
+    public Side getSide() {
+        return side;
+    }
+
+    public Double getPrice() {
+        return price;
+    }
+
+    public long getTotalSize() {
+        return totalSize;
+    }
+
+    public int getOrderCount() {
+        return orders.size();
+    }
+
+    public boolean isEmpty() {
+        return orders.isEmpty();
+    }
+
+    /**
+     * @return orders of level in order of adding
+     */
+    public Collection<Order> getOrders() {
+        return Collections.unmodifiableCollection(orders.values());
+    }
+
+    /**
+     * Level as one order; id of order is derived from side and price, so the same level of different snapshots has the same id
+     * @return order with price and total size of level
+     */
+    public Order toOrder() {
+        long id = Double.doubleToLongBits(price);
+        return new Order(side == Side.BID ? id : id | Long.MIN_VALUE, side, price, totalSize);
+    }
+
+    @Override
+    public String toString() {
+        return "PriceLevel{" +
+                "side=" + side +
+                ", price=" + price +
+                ", totalSize=" + totalSize +
+                ", orderCount=" + orders.size() +
+                '}';
+    }
+}
@@ -0,0 +1,220 @@
+package com.hesky.bookmanager.model;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact storage of depth-limited book snapshots of sequential {@link Delta}s.
+ * Each {@code interval}-th snapshot is kept in full, other snapshots are kept as changes to the previous snapshot and rebuilt on demand
+ */
+public class SnapshotJournal {
+    public static final int DEFAULT_INTERVAL = 64;
+    //estimated heap size of stored order and of one snapshot or change
+    private static final long ORDER_BYTES = 128;
+    private static final long SNAPSHOT_BYTES = 64;
+
+    private final int interval;
+    //full snapshots for indexes 0, interval, 2*interval...
+    private final List<Book> keyFrames = new ArrayList<>();
+    //changes to previous snapshot for each index (null for key frames)
+    private final List<Change> changes = new ArrayList<>();
+    private long estimatedBytes;
+    //last rebuilt snapshot of each reading thread, which allows rebuilding sequentially read snapshots by applying one change;
+    //threads, which render different parts of report, do not replace snapshots of each other
+    private final ThreadLocal<Cached> cached = ThreadLocal.withInitial(Cached::new);
+
+    public SnapshotJournal() {
+        this(DEFAULT_INTERVAL);
+    }
+
+    /**
+     * @param interval number of snapshots between full snapshots
+     */
+    public SnapshotJournal(int interval) {
+        if (interval < 1) {
+            throw new IllegalArgumentException("Interval should be positive: " + interval);
+        }
+        this.interval = interval;
+    }
+
+    /**
+     * Adds snapshot to journal. Journal keeps reference to {@code snapshot}, so it should not be modified after appending
+     *
+     * @param snapshot depth-limited book
+     * @return index of snapshot in journal
+     */
+    public synchronized int append(Book snapshot) {
+        int index = changes.size();
+        if (index % interval == 0) {
+            addKeyFrame(snapshot);
+        } else {
+            addChange(Change.between(get(index - 1), snapshot));
+        }
+        cached.get().set(snapshot, index);
+        return index;
+    }
+
+    /**
+     * Adds snapshot, which was updated in place, to journal. Only orders with {@code changedIds} are compared with previous snapshot,
+     * and {@code snapshot} is copied when it is kept in full, so caller may continue updating it
+     *
+     * @param snapshot   depth-limited book
+     * @param changedIds ids of orders, which were added, changed or removed since previous snapshot
+     * @return index of snapshot in journal
+     */
+    public synchronized int append(Book snapshot, Collection<Long> changedIds) {
+        int index = changes.size();
+        if (index % interval == 0) {
+            Book copy = snapshot.copy();
+            addKeyFrame(copy);
+            cached.get().set(copy, index);
+        } else {
+            addChange(Change.of(snapshot, changedIds));
+        }
+        return index;
+    }
+
+    private void addKeyFrame(Book snapshot) {
+        keyFrames.add(snapshot);
+        changes.add(null);
+        estimatedBytes += SNAPSHOT_BYTES + ORDER_BYTES * (snapshot.getBids().size() + snapshot.getOffers().size());
+    }
+
+    private void addChange(Change change) {
+        changes.add(change);
+        estimatedBytes += SNAPSHOT_BYTES + Long.BYTES * change.removedIds.length + ORDER_BYTES * change.addedOrders.length;
+    }
+
+    /**
+     * Rebuilds snapshot from the nearest full snapshot. Returned book is shared and should not be modified
+     *
+     * @param index index of snapshot, which was returned by {@link #append(Book)}
+     * @return snapshot of book
+     */
+    public synchronized Book get(int index) {
+        if (index < 0 || index >= changes.size()) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + changes.size());
+        }
+        Cached cached = this.cached.get();
+        if (index == cached.index) {
+            return cached.book;
+        }
+        Book book;
+        if (changes.get(index) == null) {
+            book = keyFrames.get(index / interval);
+        } else if (index == cached.index + 1) {
+            book = cached.book.copy();
+            changes.get(index).apply(book);
+        } else {
+            int keyFrame = index - index % interval;
+            book = keyFrames.get(keyFrame / interval).copy();
+            for (int i = keyFrame + 1; i <= index; i++) {
+                changes.get(i).apply(book);
+            }
+        }
+        cached.set(book, index);
+        return book;
+    }
+
+    public synchronized int size() {
+        return changes.size();
+    }
+
+    /**
+     * @return estimated heap size of stored snapshots
+     */
+    public synchronized long getEstimatedBytes() {
+        return estimatedBytes;
+    }
+
+    /**
+     * Snapshot, which was rebuilt or appended by thread
+     */
+    private static class Cached {
+        private Book book;
+        private int index = -1;
+
+        void set(Book book, int index) {
+            this.book = book;
+            this.index = index;
+        }
+    }
+
+    /**
+     * Difference between two sequential snapshots: orders which should be removed and orders which should be added (or replaced)
+     */
+    private static class Change {
+        private static final long[] NO_IDS = new long[0];
+        private static final Order[] NO_ORDERS = new Order[0];
+
+        private final long[] removedIds;
+        private final Order[] addedOrders;
+
+        private Change(long[] removedIds, Order[] addedOrders) {
+            this.removedIds = removedIds;
+            this.addedOrders = addedOrders;
+        }
+
+        static Change between(Book prev, Book current) {
+            List<Long> removed = new ArrayList<>();
+            List<Order> added = new ArrayList<>();
+            collect(prev.getBids(), current.getBids(), removed, added);
+            collect(prev.getOffers(), current.getOffers(), removed, added);
+            return of(removed, added);
+        }
+
+        /**
+         * @param current    snapshot, which has new states of orders
+         * @param changedIds ids of orders, which were changed since previous snapshot; unchanged orders are added again
+         */
+        static Change of(Book current, Collection<Long> changedIds) {
+            List<Long> removed = new ArrayList<>();
+            List<Order> added = new ArrayList<>();
+            for (Long id : changedIds) {
+                Order order = current.get(id);
+                if (order == null) {
+                    removed.add(id);
+                } else {
+                    added.add(order);
+                }
+            }
+            return of(removed, added);
+        }
+
+        private static Change of(List<Long> removed, List<Order> added) {
+            long[] removedIds = removed.isEmpty() ? NO_IDS : new long[removed.size()];
+            for (int i = 0; i < removedIds.length; i++) {
+                removedIds[i] = removed.get(i);
+            }
+            return new Change(removedIds, added.isEmpty() ? NO_ORDERS : added.toArray(NO_ORDERS));
+        }
+
+        private static void collect(Map<Long, Order> prev, Map<Long, Order> current, List<Long> removed, List<Order> added) {
+            for (Long id : prev.keySet()) {
+                if (!current.containsKey(id)) {
+                    removed.add(id);
+                }
+            }
+            for (Order order : current.values()) {
+                if (!order.equals(prev.get(order.getId()))) {
+                    added.add(order);
+                }
+            }
+        }
+
+        void apply(Book book) {
+            for (long id : removedIds) {
+                book.delete(id);
+            }
+            for (Order order : addedOrders) {
+                //replaced order may change its side
+                if (!book.contains(order)) {
+                    book.delete(order.getId());
+                }
+                book.add(order);
+            }
+        }
+    }
+}
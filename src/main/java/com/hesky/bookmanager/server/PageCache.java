@@ -0,0 +1,64 @@
+package com.hesky.bookmanager.server;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * LRU cache of rendered pages, which is limited by total size of pages. Least recently used pages are evicted,
+ * when size of cached pages exceeds limit; page larger than limit is not cached
+ */
+public class PageCache {
+    private final long maxBytes;
+    //pages in order of access, the least recently used first
+    private final LinkedHashMap<String, byte[]> pages = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes;
+
+    /**
+     * @param maxBytes limit of total size of cached pages
+     */
+    public PageCache(long maxBytes) {
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException("Size limit should not be negative: " + maxBytes);
+        }
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @param key key of page
+     * @return cached page or null
+     */
+    public synchronized byte[] get(String key) {
+        return pages.get(key);
+    }
+
+    /**
+     * Adds page to cache and evicts the least recently used pages to fit size limit
+     *
+     * @param key  key of page
+     * @param page rendered page
+     */
+    public synchronized void put(String key, byte[] page) {
+        if (page.length > maxBytes) {
+            return;
+        }
+        byte[] previous = pages.put(key, page);
+        bytes += page.length - (previous == null ? 0 : previous.length);
+        Iterator<Map.Entry<String, byte[]>> eldest = pages.entrySet().iterator();
+        while (bytes > maxBytes) {
+            bytes -= eldest.next().getValue().length;
+            eldest.remove();
+        }
+    }
+
+    public synchronized int size() {
+        return pages.size();
+    }
+
+    /**
+     * @return total size of cached pages
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+}
@@ -0,0 +1,295 @@
+package com.hesky.bookmanager.server;
+
+import com.hesky.bookmanager.Report;
+import com.hesky.bookmanager.controller.InputData;
+import com.hesky.bookmanager.model.Delta;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import j2html.tags.ContainerTag;
+import org.slf4j.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static j2html.TagCreator.*;
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Embedded HTTP server on localhost, which shows report page by page. Pages are rendered on demand, when they are requested,
+ * and kept in {@link PageCache}. Requests:
+ * <ul>
+ * <li>/?page=N - N-th page of records (from 0)</li>
+ * <li>/?sequence=S - redirects to page with the first record of message with sequence number S</li>
+ * <li>/?from=T&amp;to=T&amp;page=N - N-th page of records, which were sent in time range (ISO date time, bounds are inclusive and optional)</li>
+ * </ul>
+ * Deltas should be in order of messages, their snapshots may be kept in journal. Server owns list of deltas and closes it
+ * on {@link #close()}, if list is {@link Closeable} (e.g. {@link com.hesky.bookmanager.util.SpillList})
+ */
+public class ReportServer implements Closeable {
+    private static final Logger LOG = getLogger(ReportServer.class);
+    public static final int DEFAULT_PAGE_SIZE = 100;
+    public static final long DEFAULT_CACHE_BYTES = 64L << 20;
+    private static final String PAGE = "page";
+    private static final String SEQUENCE = "sequence";
+    private static final String FROM = "from";
+    private static final String TO = "to";
+
+    private final List<Delta> deltas;
+    private final int pageSize;
+    private final PageCache cache;
+    //index of the first delta of each sequence number
+    private final Map<Integer, Integer> sequenceIndexes = new HashMap<>();
+    //each thread renders with its own report, because report is not thread safe
+    private final ThreadLocal<Report> reports;
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    /**
+     * Creates server with default page size and cache limit
+     *
+     * @param data   user's input data
+     * @param deltas records of report, which are closed with server
+     * @param port   port on localhost or 0 for any free port
+     * @throws IOException if cannot bind to port
+     */
+    public ReportServer(InputData data, List<Delta> deltas, int port) throws IOException {
+        this(data, deltas, port, DEFAULT_PAGE_SIZE, new PageCache(DEFAULT_CACHE_BYTES));
+    }
+
+    /**
+     * @param data     user's input data
+     * @param deltas   records of report, which are closed with server
+     * @param port     port on localhost or 0 for any free port
+     * @param pageSize number of records of one page
+     * @param cache    cache of rendered pages
+     * @throws IOException if cannot bind to port
+     */
+    public ReportServer(InputData data, List<Delta> deltas, int port, int pageSize, PageCache cache) throws IOException {
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("Page size should be positive: " + pageSize);
+        }
+        this.deltas = deltas;
+        this.pageSize = pageSize;
+        this.cache = cache;
+        this.reports = ThreadLocal.withInitial(() -> new Report(data));
+        for (int i = 0; i < deltas.size(); i++) {
+            sequenceIndexes.putIfAbsent(deltas.get(i).getNumber(), i);
+        }
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        this.executor = Executors.newFixedThreadPool(Math.max(1, data.getRenderThreads()));
+        server.createContext("/", this::handle);
+        server.setExecutor(executor);
+    }
+
+    public void start() {
+        server.start();
+        LOG.info("Report server is started on http://localhost:{}/", getPort());
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public PageCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Stops server and closes list of deltas, so that its memory and temporary file are released
+     *
+     * @throws IOException if cannot close list of deltas
+     */
+    @Override
+    public void close() throws IOException {
+        server.stop(0);
+        executor.shutdown();
+        try {
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (deltas instanceof Closeable) {
+            ((Closeable) deltas).close();
+        }
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                send(exchange, 405, "Method is not allowed");
+            } else if (!"/".equals(exchange.getRequestURI().getPath())) {
+                send(exchange, 404, "Not found");
+            } else {
+                handleQuery(exchange, parseQuery(exchange.getRequestURI().getRawQuery()));
+            }
+        }
+        catch (NumberFormatException | DateTimeParseException e) {
+            send(exchange, 400, "Bad request: " + e.getMessage());
+        }
+        catch (Exception e) {
+            LOG.error("Cannot serve {}", exchange.getRequestURI(), e);
+            send(exchange, 500, "Cannot render page");
+        }
+        finally {
+            exchange.close();
+        }
+    }
+
+    private void handleQuery(HttpExchange exchange, Map<String, String> params) throws IOException {
+        if (params.containsKey(SEQUENCE)) {
+            Integer index = sequenceIndexes.get(Integer.parseInt(params.get(SEQUENCE)));
+            if (index == null) {
+                send(exchange, 404, "No record of message with sequence number " + params.get(SEQUENCE));
+            } else {
+                exchange.getResponseHeaders().set("Location", "/?" + PAGE + "=" + index / pageSize);
+                exchange.sendResponseHeaders(302, -1);
+            }
+            return;
+        }
+        //records of time range or all records
+        int first = params.containsKey(FROM) ? lowerBound(LocalDateTime.parse(params.get(FROM))) : 0;
+        int last = params.containsKey(TO) ? upperBound(LocalDateTime.parse(params.get(TO))) : deltas.size();
+        int count = Math.max(0, last - first);
+        int pages = Math.max(1, (count + pageSize - 1) / pageSize);
+        int page = params.containsKey(PAGE) ? Integer.parseInt(params.get(PAGE)) : 0;
+        if (page < 0 || page >= pages) {
+            send(exchange, 404, "No page " + page);
+            return;
+        }
+        params.put(PAGE, String.valueOf(page));
+        String key = query(params);
+        byte[] body = cache.get(key);
+        if (body == null) {
+            int start = first + page * pageSize;
+            body = render(params, page, pages, start, Math.min(start + pageSize, first + count));
+            cache.put(key, body);
+        }
+        exchange.getResponseHeaders().set("Content-Type", "text/html; charset=UTF-8");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    /**
+     * @return index of the first delta, which was sent at or after {@code time}
+     */
+    private int lowerBound(LocalDateTime time) {
+        int low = 0;
+        int high = deltas.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (deltas.get(middle).getEndDateTime().isBefore(time)) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return index of the first delta, which was sent after {@code time}
+     */
+    private int upperBound(LocalDateTime time) {
+        int low = 0;
+        int high = deltas.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (deltas.get(middle).getEndDateTime().isAfter(time)) {
+                high = middle;
+            } else {
+                low = middle + 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return UTF-8 page with records of deltas from {@code start} (inclusive) to {@code end} (exclusive)
+     */
+    private byte[] render(Map<String, String> params, int page, int pages, int start, int end) throws IOException {
+        Report report = reports.get();
+        StringBuilder html = new StringBuilder();
+        report.writeHead(html);
+        ContainerTag navigation = navigation(params, page, pages, start, end);
+        navigation.render(html);
+        for (int i = start; i < end; i++) {
+            report.writeRecord(deltas.get(i), html);
+        }
+        navigation.render(html);
+        report.writeTail(html);
+        return html.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private ContainerTag navigation(Map<String, String> params, int page, int pages, int start, int end) throws UnsupportedEncodingException {
+        String records = start < end ? "records " + (start + 1) + "-" + end : "no records";
+        return p(
+                page > 0 ? a("Previous").withHref(link(params, page - 1)) : text(""),
+                text(" Page " + (page + 1) + " of " + pages + " (" + records + " of " + deltas.size() + ") "),
+                page + 1 < pages ? a("Next").withHref(link(params, page + 1)) : text("")
+        );
+    }
+
+    private static String link(Map<String, String> params, int page) throws UnsupportedEncodingException {
+        Map<String, String> linkParams = new LinkedHashMap<>(params);
+        linkParams.put(PAGE, String.valueOf(page));
+        return "/?" + query(linkParams);
+    }
+
+    /**
+     * @return query string with parameters in fixed order, which is also key of page in cache
+     */
+    private static String query(Map<String, String> params) throws UnsupportedEncodingException {
+        StringBuilder query = new StringBuilder();
+        for (String name : new String[]{FROM, TO, PAGE}) {
+            if (params.containsKey(name)) {
+                if (query.length() > 0) {
+                    query.append('&');
+                }
+                query.append(name).append('=').append(URLEncoder.encode(params.get(name), "UTF-8"));
+            }
+        }
+        return query.toString();
+    }
+
+    private static Map<String, String> parseQuery(String query) throws UnsupportedEncodingException {
+        Map<String, String> params = new HashMap<>();
+        if (query == null || query.isEmpty()) {
+            return params;
+        }
+        for (String param : query.split("&")) {
+            int separator = param.indexOf('=');
+            if (separator > 0) {
+                params.put(URLDecoder.decode(param.substring(0, separator), "UTF-8"), URLDecoder.decode(param.substring(separator + 1), "UTF-8"));
+            }
+        }
+        return params;
+    }
+
+    private static void send(HttpExchange exchange, int status, String message) throws IOException {
+        byte[] body = message.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+}
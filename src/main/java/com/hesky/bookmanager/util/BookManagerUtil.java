@@ -1,20 +1,21 @@
 package com.hesky.bookmanager.util;
 
 import com.hesky.bookmanager.model.*;
-import org.slf4j.Logger;
 import quickfix.FieldNotFound;
 import quickfix.Group;
 
+import java.math.BigDecimal;
 import java.util.*;
+import java.util.function.Function;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
-import static org.slf4j.LoggerFactory.getLogger;
-
 /**
  * Util methods for BookManager
  */
 public class BookManagerUtil {
-    private static final Logger LOG = getLogger(BookManagerUtil.class);
+    //order of Book#getAllOrders: bids and then offers, each side from the lowest price
+    private static final Comparator<Order> BY_SIDE_AND_PRICE = Comparator.comparing(Order::getSide).thenComparing(Order::getPrice);
 
     /**
      * Returns unique Orders from book1 and book2. Result contains all book1 and book2 orders excluding otders that are present in both books.
@@ -49,7 +50,7 @@ public class BookManagerUtil {
      * @return list of Orders which are present in book1 and not in book2
      */
     public static List<Order> getUniqueOrdersForBook(Book book1, Book book2) {
-        return book1.getAllOrders().stream().filter(o -> !book2.getAllMapOrders().containsKey(o.getId())).collect(Collectors.toList());
+        return book1.getAllOrders().stream().filter(o -> book2.get(o.getId()) == null).collect(Collectors.toList());
     }
 
     /**
@@ -66,15 +67,15 @@ public class BookManagerUtil {
     /**
      * Returns order with such price as {@code updateCandidate} contains; therefore returned order is replacing received {@code updateCandidate} in currentSnapshot
      *
-     * @param updateCandidate       order, which was removed from Book and may be an update candidate
-     * @param currentSnapshotOrders map of all orders which are present in currentSnapshot
-     * @param addedOrders           list of all orders, which were added to currentSnapshot
+     * @param updateCandidate order, which was removed from Book and may be an update candidate
+     * @param currentSnapshot Book with first levels after modifying
+     * @param prices          checks that price is present in currentSnapshot
+     * @param addedOrders     list of all orders, which were added to currentSnapshot
      * @return Order, which replaced {@code updateCandidate} having similar price and is present in addedOrders; OR return NULL if Order with such price was not updated, but simply removed or in other cases
      */
-    private static Order tryUpdate(Order updateCandidate, Map<Long, Order> currentSnapshotOrders, Collection<Order> addedOrders) {
-        Set<Double> prices = currentSnapshotOrders.values().stream().map(Order::getPrice).collect(Collectors.toSet());
-        if (prices.contains(updateCandidate.getPrice())) {
-            Order o = currentSnapshotOrders.get(updateCandidate.getId());
+    private static Order tryUpdate(Order updateCandidate, Book currentSnapshot, Predicate<Double> prices, Collection<Order> addedOrders) {
+        if (prices.test(updateCandidate.getPrice())) {
+            Order o = currentSnapshot.get(updateCandidate.getId());
             if (!updateCandidate.equals(o)) {
                 return addedOrders.stream().filter(or -> or.getPrice().equals(updateCandidate.getPrice())).findFirst().orElse(null);
             }
@@ -93,19 +94,102 @@ public class BookManagerUtil {
      * @return list of prevBook changes
      */
     public static List<Delta.Entry> getBookChanges(Collection<Order> removedOrders, Collection<Order> addedOrders, Book prevBook, Book currentBook, int depth) {
+        return getBookChanges(removedOrders, addedOrders, Collections.emptyList(), prevBook, currentBook, depth);
+    }
+
+    /**
+     * Calculates Book changes occurred in prevBook by adding addedOrders, deleting removedOrders and changing changedOrders.
+     * Changed orders, which stay in first levels, are updates without searching orders with similar price
+     *
+     * @param removedOrders Orders which were removed from prevBook
+     * @param addedOrders   Orders which were added to prevBook
+     * @param changedOrders new states of Orders which were changed in prevBook
+     * @param prevBook      Book of orders before modifying (adding/deleting/changing orders)
+     * @param currentBook   Book of orders after modifying (adding/deleting/changing orders)
+     * @param depth         number of Book levels which would be used for monitoring changes
+     * @return list of prevBook changes
+     */
+    public static List<Delta.Entry> getBookChanges(Collection<Order> removedOrders, Collection<Order> addedOrders, Collection<Order> changedOrders, Book prevBook, Book currentBook, int depth) {
+        return getBookChanges(removedOrders, addedOrders, changedOrders, prevBook.getFirstLevels(depth), currentBook.getFirstLevels(depth), prevBook::contains);
+    }
+
+    /**
+     * Calculates Book changes between snapshots. Orders are looked up by id, so cost depends on size of snapshots and number of input orders, not on size of book
+     *
+     * @param removedOrders   Orders which were removed from book
+     * @param addedOrders     Orders which were added to book
+     * @param changedOrders   new states of Orders which were changed in book
+     * @param prevSnapshot    Book with first N (depth) levels before modifying
+     * @param currentSnapshot Book with first N (depth) levels after modifying
+     * @param wasInBook       checks that order was present in the whole book before modifying
+     * @return list of book changes
+     */
+    public static List<Delta.Entry> getBookChanges(Collection<Order> removedOrders, Collection<Order> addedOrders, Collection<Order> changedOrders, Book prevSnapshot, Book currentSnapshot, Predicate<Order> wasInBook) {
+        Set<Double> currentPrices = new HashSet<>();
+        for (Order order : currentSnapshot.getBids().values()) {
+            currentPrices.add(order.getPrice());
+        }
+        for (Order order : currentSnapshot.getOffers().values()) {
+            currentPrices.add(order.getPrice());
+        }
+        return getBookChanges(removedOrders, addedOrders, changedOrders, prevSnapshot::get, currentSnapshot, currentPrices::contains,
+                findNew(prevSnapshot, currentSnapshot, wasInBook), getUniqueOrdersForBook(prevSnapshot, currentSnapshot));
+    }
+
+    /**
+     * Calculates Book changes of snapshot, which was updated in place. Only orders of {@code snapshotChanges} are compared, so cost does not depend on size of snapshot
+     *
+     * @param removedOrders   Orders which were removed from book
+     * @param addedOrders     Orders which were added to book
+     * @param changedOrders   new states of Orders which were changed in book
+     * @param currentSnapshot Book with first N (depth) levels after modifying
+     * @param snapshotChanges previous states of orders of snapshot, which were replaced or removed, and null for added orders (key=id)
+     * @param wasInBook       checks that order was present in the whole book before modifying
+     * @return list of book changes
+     * @see Book#updateSnapshot(Book, int, BookMode, Set, Set, Map)
+     */
+    public static List<Delta.Entry> getBookChanges(Collection<Order> removedOrders, Collection<Order> addedOrders, Collection<Order> changedOrders, Book currentSnapshot, Map<Long, Order> snapshotChanges, Predicate<Order> wasInBook) {
+        List<Order> appeared = new ArrayList<>();
+        List<Order> disappeared = new ArrayList<>();
+        snapshotChanges.forEach((id, prev) -> {
+            Order current = currentSnapshot.get(id);
+            if (prev == null && current != null && wasInBook.test(current)) {
+                appeared.add(current);
+            } else if (prev != null && current == null) {
+                disappeared.add(prev);
+            }
+        });
+        //order of snapshot orders, as in Book#getAllOrders
+        appeared.sort(BY_SIDE_AND_PRICE);
+        disappeared.sort(BY_SIDE_AND_PRICE);
+        Function<Long, Order> prevSnapshot = id -> snapshotChanges.containsKey(id) ? snapshotChanges.get(id) : currentSnapshot.get(id);
+        return getBookChanges(removedOrders, addedOrders, changedOrders, prevSnapshot, currentSnapshot, currentSnapshot::hasPrice, appeared, disappeared);
+    }
+
+    /**
+     * @param prevSnapshot    finds order of snapshot before modifying by id
+     * @param currentPrices   checks that price is present in {@code currentSnapshot}
+     * @param appeared        orders of {@code currentSnapshot}, which were absent in previous snapshot and were present in book before modifying
+     * @param disappeared     orders of previous snapshot, which are absent in {@code currentSnapshot}
+     */
+    private static List<Delta.Entry> getBookChanges(Collection<Order> removedOrders, Collection<Order> addedOrders, Collection<Order> changedOrders, Function<Long, Order> prevSnapshot,
+                                                    Book currentSnapshot, Predicate<Double> currentPrices, List<Order> appeared, List<Order> disappeared) {
         List<Order> deletedOrders = new ArrayList<>();
         List<Order> updatedOrders = new ArrayList<>();
         List<Order> newOrders = new ArrayList<>();
-        Book currentSnapshot = currentBook.getFirstLevels(depth);
-        Book prevSnapshot = prevBook.getFirstLevels(depth);
+        //changed orders, which were and still are in first levels, are updated; others appear or disappear from first levels
+        for (Order changed : changedOrders) {
+            Order current = currentSnapshot.get(changed.getId());
+            Order prev = prevSnapshot.apply(changed.getId());
+            if (current != null && prev != null && !current.equals(prev) && !updatedOrders.contains(current)) {
+                updatedOrders.add(current);
+            }
+        }
         //find all removed or updated orders which are present in removedOrders
         removedOrders.forEach(removed -> {
-            Order matchedOrder = prevSnapshot.getAllOrders().stream()
-                .filter(removed::equals)
-                .findFirst()
-                .orElse(null);
-            if (matchedOrder != null) {
-                Order updated = tryUpdate(matchedOrder, currentSnapshot.getAllMapOrders(), addedOrders);
+            Order matchedOrder = prevSnapshot.apply(removed.getId());
+            if (matchedOrder != null && matchedOrder.equals(removed)) {
+                Order updated = tryUpdate(matchedOrder, currentSnapshot, currentPrices, addedOrders);
                 if (updated != null) {
                     updatedOrders.add(updated);
                     addedOrders.remove(updated);
@@ -116,18 +200,15 @@ public class BookManagerUtil {
         });
         //find all new orders among added orders
         addedOrders.forEach(order -> {
-            Order matchedBid = currentSnapshot.getAllOrders().stream()
-                .filter(order::equals)
-                .findFirst()
-                .orElse(null);
-            if (matchedBid != null && isNew(matchedBid, prevSnapshot.getAllMapOrders())) {
+            Order matchedBid = currentSnapshot.get(order.getId());
+            if (matchedBid != null && matchedBid.equals(order) && prevSnapshot.apply(matchedBid.getId()) == null) {
                 newOrders.add(matchedBid);
             }
         });
 
-        newOrders.addAll(findNew(prevSnapshot, currentSnapshot, prevBook));
+        newOrders.addAll(appeared);
 
-        deletedOrders.addAll(findDeleted(prevSnapshot, currentSnapshot, updatedOrders, deletedOrders));
+        deletedOrders.addAll(findDeleted(disappeared, updatedOrders, deletedOrders));
 
         //making result
         List<Delta.Entry> result = new ArrayList<>();
@@ -138,18 +219,82 @@ public class BookManagerUtil {
         return result;
     }
 
+    /**
+     * Compares snapshots by order ids, e.g. when whole book was replaced
+     *
+     * @param prevSnapshot    Book with first N (depth) levels before replacing
+     * @param currentSnapshot Book with first N (depth) levels after replacing
+     * @return deleted, updated and new orders of first levels
+     */
+    public static List<Delta.Entry> getSnapshotChanges(Book prevSnapshot, Book currentSnapshot) {
+        List<Delta.Entry> result = new ArrayList<>();
+        for (Order order : prevSnapshot.getAllOrders()) {
+            if (currentSnapshot.get(order.getId()) == null) {
+                result.add(new Delta.Entry(order, Action.DELETE));
+            }
+        }
+        for (Order order : currentSnapshot.getAllOrders()) {
+            Order prev = prevSnapshot.get(order.getId());
+            if (prev != null && !prev.equals(order)) {
+                result.add(new Delta.Entry(order, Action.UPDATE));
+            }
+        }
+        for (Order order : currentSnapshot.getAllOrders()) {
+            if (prevSnapshot.get(order.getId()) == null) {
+                result.add(new Delta.Entry(order, Action.NEW));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Lists changes of snapshot, which was updated in place, as {@link #getSnapshotChanges(Book, Book)}; orders with the same price may be listed in other order.
+     * Only orders of {@code snapshotChanges} are compared, so cost does not depend on size of snapshot
+     *
+     * @param currentSnapshot Book with first N (depth) levels after modifying
+     * @param snapshotChanges previous states of orders of snapshot, which were replaced or removed, and null for added orders (key=id)
+     * @return deleted, updated and new orders of first levels
+     */
+    public static List<Delta.Entry> getSnapshotChanges(Book currentSnapshot, Map<Long, Order> snapshotChanges) {
+        List<Order> deleted = new ArrayList<>();
+        List<Order> updated = new ArrayList<>();
+        List<Order> added = new ArrayList<>();
+        snapshotChanges.forEach((id, prev) -> {
+            Order current = currentSnapshot.get(id);
+            if (current == null) {
+                if (prev != null) {
+                    deleted.add(prev);
+                }
+            } else if (prev == null) {
+                added.add(current);
+            } else if (!prev.equals(current)) {
+                updated.add(current);
+            }
+        });
+        List<Delta.Entry> result = new ArrayList<>(deleted.size() + updated.size() + added.size());
+        addEntries(deleted, Action.DELETE, result);
+        addEntries(updated, Action.UPDATE, result);
+        addEntries(added, Action.NEW, result);
+        return result;
+    }
+
+    private static void addEntries(List<Order> orders, Action action, List<Delta.Entry> result) {
+        orders.sort(BY_SIDE_AND_PRICE);
+        for (Order order : orders) {
+            result.add(new Delta.Entry(order, action));
+        }
+    }
+
     /**
      * Returns all deleted orders which were not deleted by current message (not present in removedOrders), but disappeared from current snapshot by adding more profitable orders in current message
      *
-     * @param prevSnapshot    Book with limited number(depth) of levels before modifying
-     * @param currentSnapshot Book with limited number (depth) of levels after modifying
-     * @param updatedOrders   List of orders, which were updated in currentSnapshot
-     * @param deletedOrders   List of orders, which were deleted in currentSnapshot
+     * @param disappeared   Orders of prevSnapshot, which are absent in currentSnapshot
+     * @param updatedOrders List of orders, which were updated in currentSnapshot
+     * @param deletedOrders List of orders, which were deleted in currentSnapshot
      * @return List of Orders, which were disappeared in currentSnapshot, but were present in prevSnapshot
      */
-    private static List<Order> findDeleted(Book prevSnapshot, Book currentSnapshot, List<Order> updatedOrders, List<Order> deletedOrders) {
-        List<Order> uniqueOrdersForBook = getUniqueOrdersForBook(prevSnapshot, currentSnapshot);
-        return uniqueOrdersForBook.stream().filter(order -> !deletedOrders.contains(order) && !containsPrice(updatedOrders, order.getPrice())).collect(Collectors.toList());
+    private static List<Order> findDeleted(List<Order> disappeared, List<Order> updatedOrders, List<Order> deletedOrders) {
+        return disappeared.stream().filter(order -> !deletedOrders.contains(order) && !containsPrice(updatedOrders, order.getPrice())).collect(Collectors.toList());
     }
 
     /**
@@ -166,31 +311,42 @@ public class BookManagerUtil {
      *
      * @param prevSnapshot    Book with first N (depth) levels before modifying
      * @param currentSnapshot Book with first N (depth) levels after modifying
-     * @param prevBook        Book with all orders (all levels) before modifying
+     * @param wasInBook       checks that order was present in Book with all orders (all levels) before modifying
      * @return list of new Orders which were appeared from prevBook and are present in currentSnapshot
      */
-    private static List<Order> findNew(Book prevSnapshot, Book currentSnapshot, Book prevBook) {
-        List<Order> uniqueOrders = getUniqueOrders(prevSnapshot, currentSnapshot);
-        return currentSnapshot.getAllOrders().stream().filter(offer -> prevBook.contains(offer) && uniqueOrders.contains(offer)).collect(Collectors.toList());
+    private static List<Order> findNew(Book prevSnapshot, Book currentSnapshot, Predicate<Order> wasInBook) {
+        return currentSnapshot.getAllOrders().stream().filter(offer -> prevSnapshot.get(offer.getId()) == null && wasInBook.test(offer)).collect(Collectors.toList());
+    }
 
+    /**
+     * @param group    FIX message's group with changed order (279=1)
+     * @param previous previous state of order or null if it is unknown
+     * @return new state of order; side, price and size, which are absent in {@code group}, are taken from {@code previous}
+     * @throws FieldNotFound if id is not present in group or other fields are not present in group and in {@code previous}
+     */
+    public static Order readChange(Group group, Order previous) throws FieldNotFound {
+        if (previous == null) {
+            return readOrder(group);
+        }
+        Order order = new Order(previous);
+        if (group.isSetField(269)) {
+            order.setSide(Side.values()[group.getInt(269)]);
+        }
+        if (group.isSetField(270)) {
+            order.setPrice(group.getDouble(270));
+        }
+        if (group.isSetField(271)) {
+            order.setSize(readLong(group, 271));
+        }
+        return order;
     }
 
     /**
-     * Check if delete orders exist in {@code groups}
-     *
-     * @param groups Order groups grom FIX message
-     * @return true if Delete orders exist in groups OR false otherwise
+     * @param group FIX message's group with order
+     * @return true if {@code group} contains side, price and size of order
      */
-    public static boolean isDeleteExist(List<Group> groups) {
-        return groups.stream().anyMatch(group -> {
-            try {
-                return group.getInt(279) == 2;
-            }
-            catch (FieldNotFound fieldNotFound) {
-                LOG.error("Cannot find field 279", fieldNotFound);
-                return false;
-            }
-        });
+    public static boolean isCompleteOrder(Group group) {
+        return group.isSetField(269) && group.isSetField(270) && group.isSetField(271);
     }
 
     /**
@@ -202,9 +358,44 @@ public class BookManagerUtil {
         Order order = new Order();
         int side = group.getInt(269);
         order.setSide(Side.values()[side]);
-        order.setId(group.getDecimal(278).longValue());
+        order.setId(readLong(group, 278));
         order.setPrice(group.getDouble(270));
-        order.setSize(group.getDecimal(271).longValue());
+        order.setSize(readLong(group, 271));
         return order;
     }
+
+    /**
+     * Reads integer value of decimal field without creating BigDecimal for values without fraction
+     *
+     * @param group FIX message's group
+     * @param tag   tag of field
+     * @return value of field without fraction
+     * @throws FieldNotFound if field is not present in group
+     */
+    public static long readLong(Group group, int tag) throws FieldNotFound {
+        String value = group.getString(tag);
+        long result = parseDigits(value);
+        //fraction, exponent and too long values are parsed as decimal
+        return result >= 0 ? result : new BigDecimal(value).longValue();
+    }
+
+    /**
+     * @param value text of field
+     * @return value of field, which contains only digits, or -1 if it contains other characters or more than 18 digits
+     */
+    private static long parseDigits(String value) {
+        int length = value.length();
+        if (length == 0 || length > 18) {
+            return -1;
+        }
+        long result = 0;
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            result = result * 10 + (c - '0');
+        }
+        return result;
+    }
 }
@@ -0,0 +1,172 @@
+package com.hesky.bookmanager.util;
+
+import com.hesky.bookmanager.model.Book;
+import com.hesky.bookmanager.model.Order;
+import com.hesky.bookmanager.model.Side;
+import org.slf4j.Logger;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Collection;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * State of report building, which allows to resume building from the place where it was stopped.
+ * Checkpoint is stored in compact binary form
+ */
+public class Checkpoint {
+    private static final Logger LOG = getLogger(Checkpoint.class);
+    private static final int MAGIC = 0x424D4350;
+    //version 2 keeps offset of each log file and key of any length
+    private static final byte VERSION = 2;
+
+    //identity of input data, which checkpoint belongs to
+    private String key;
+    //offset of the first log line, which was not processed, of each log file
+    private long[] logOffsets;
+    //number of report bytes written before checkpoint
+    private long reportLength;
+    //time of the last market data request (35=v) or null
+    private LocalDateTime requestTime;
+    private boolean isBookReset;
+    //full book state
+    private Book book;
+
+    public Checkpoint() {
+    }
+
+    public Checkpoint(String key, long[] logOffsets, long reportLength, LocalDateTime requestTime, boolean isBookReset, Book book) {
+        this.key = key;
+        this.logOffsets = logOffsets;
+        this.reportLength = reportLength;
+        this.requestTime = requestTime;
+        this.isBookReset = isBookReset;
+        this.book = book;
+    }
+
+    /**
+     * Writes checkpoint to temporary file and then atomically replaces {@code file}
+     *
+     * @param file checkpoint file
+     * @throws IOException if cannot write checkpoint
+     */
+    public void write(Path file) throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            //key contains paths of all log files, so it may be longer than limit of writeUTF
+            byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(keyBytes.length);
+            out.write(keyBytes);
+            out.writeInt(logOffsets.length);
+            for (long logOffset : logOffsets) {
+                out.writeLong(logOffset);
+            }
+            out.writeLong(reportLength);
+            out.writeBoolean(requestTime != null);
+            if (requestTime != null) {
+                out.writeLong(requestTime.toEpochSecond(ZoneOffset.UTC));
+                out.writeInt(requestTime.getNano());
+            }
+            out.writeBoolean(isBookReset);
+            out.writeUTF(book.getSymbol() == null ? "" : book.getSymbol());
+            writeOrders(out, book.getBids().values());
+            writeOrders(out, book.getOffers().values());
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void writeOrders(DataOutputStream out, Collection<Order> orders) throws IOException {
+        out.writeInt(orders.size());
+        for (Order order : orders) {
+            out.writeLong(order.getId());
+            out.writeDouble(order.getPrice());
+            out.writeLong(order.getSize());
+        }
+    }
+
+    /**
+     * Reads checkpoint, that belongs to input data with {@code key}
+     *
+     * @param file checkpoint file
+     * @param key  identity of input data
+     * @return checkpoint or null if file does not exist, is damaged or was created for other input data
+     */
+    public static Checkpoint read(Path file, String key) {
+        if (!Files.exists(file)) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readByte() != VERSION) {
+                LOG.warn("Unknown checkpoint format: {}", file);
+                return null;
+            }
+            Checkpoint checkpoint = new Checkpoint();
+            byte[] keyBytes = new byte[in.readInt()];
+            in.readFully(keyBytes);
+            checkpoint.key = new String(keyBytes, StandardCharsets.UTF_8);
+            if (!checkpoint.key.equals(key)) {
+                LOG.info("Checkpoint {} belongs to other input data", file);
+                return null;
+            }
+            checkpoint.logOffsets = new long[in.readInt()];
+            for (int i = 0; i < checkpoint.logOffsets.length; i++) {
+                checkpoint.logOffsets[i] = in.readLong();
+            }
+            checkpoint.reportLength = in.readLong();
+            if (in.readBoolean()) {
+                checkpoint.requestTime = LocalDateTime.ofEpochSecond(in.readLong(), in.readInt(), ZoneOffset.UTC);
+            }
+            checkpoint.isBookReset = in.readBoolean();
+            checkpoint.book = new Book(in.readUTF());
+            readOrders(in, checkpoint.book, Side.BID);
+            readOrders(in, checkpoint.book, Side.ASK);
+            return checkpoint;
+        }
+        catch (IOException e) {
+            LOG.warn("Cannot read checkpoint {}", file, e);
+            return null;
+        }
+    }
+
+    private static void readOrders(DataInputStream in, Book book, Side side) throws IOException {
+        int size = in.readInt();
+        for (int i = 0; i < size; i++) {
+            book.add(new Order(in.readLong(), side, in.readDouble(), in.readLong()));
+        }
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * @return offset of the first log line, which was not processed, of each log file
+     */
+    public long[] getLogOffsets() {
+        return logOffsets;
+    }
+
+    public long getReportLength() {
+        return reportLength;
+    }
+
+    public LocalDateTime getRequestTime() {
+        return requestTime;
+    }
+
+    public boolean isBookReset() {
+        return isBookReset;
+    }
+
+    public Book getBook() {
+        return book;
+    }
+}
@@ -0,0 +1,187 @@
+package com.hesky.bookmanager.util;
+
+import com.hesky.bookmanager.model.*;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Encodes delta with its entries. Snapshot of delta, which is stored in journal, is encoded as index in journal,
+ * other snapshots are encoded with all orders
+ */
+public class DeltaCodec implements SpillList.Codec<Delta> {
+    //estimated heap size of delta and of one entry or order
+    private static final long DELTA_BYTES = 256;
+    private static final long ORDER_BYTES = 128;
+    private static final int HAS_NUMBER = 1;
+    private static final int HAS_START = 2;
+    private static final int HAS_END = 4;
+    private static final int IS_BOOK_REFRESH = 8;
+    private static final int IS_IN_JOURNAL = 16;
+    private static final int HAS_LOG = 32;
+    private static final int HAS_ID = 1;
+    private static final int HAS_PRICE = 2;
+    private static final int HAS_SIZE = 4;
+    private static final int HAS_SIDE = 8;
+
+    private final SnapshotJournal journal;
+
+    /**
+     * @param journal journal of snapshots of encoded deltas
+     */
+    public DeltaCodec(SnapshotJournal journal) {
+        this.journal = journal;
+    }
+
+    @Override
+    public long estimate(Delta delta) {
+        long orders = delta.getInputOrders().size() + delta.getBookChanges().size();
+        if (delta.getJournal() == null && delta.getBook() != null) {
+            orders += delta.getBook().getBids().size() + delta.getBook().getOffers().size();
+        }
+        return DELTA_BYTES + ORDER_BYTES * orders;
+    }
+
+    @Override
+    public void write(Delta delta, DataOutput out) throws IOException {
+        boolean isInJournal = delta.getJournal() != null && delta.getJournal() == journal;
+        int flags = (delta.getNumber() != null ? HAS_NUMBER : 0)
+                | (delta.getStartDateTime() != null ? HAS_START : 0)
+                | (delta.getEndDateTime() != null ? HAS_END : 0)
+                | (delta.isBookRefresh() ? IS_BOOK_REFRESH : 0)
+                | (isInJournal ? IS_IN_JOURNAL : 0)
+                | (delta.getLogDateTime() != null ? HAS_LOG : 0);
+        out.writeByte(flags);
+        if (delta.getNumber() != null) {
+            out.writeInt(delta.getNumber());
+        }
+        writeTime(delta.getStartDateTime(), out);
+        writeTime(delta.getEndDateTime(), out);
+        writeTime(delta.getLogDateTime(), out);
+        if (isInJournal) {
+            out.writeInt(delta.getJournalIndex());
+        } else {
+            Book book = delta.getBook();
+            byte[] symbol = book.getSymbol().getBytes(StandardCharsets.UTF_8);
+            out.writeInt(symbol.length);
+            out.write(symbol);
+            writeOrders(book.getAllOrders(), out);
+        }
+        writeEntries(delta.getInputOrders(), out);
+        writeEntries(delta.getBookChanges(), out);
+    }
+
+    private static void writeTime(LocalDateTime time, DataOutput out) throws IOException {
+        if (time != null) {
+            out.writeLong(time.toEpochSecond(ZoneOffset.UTC));
+            out.writeInt(time.getNano());
+        }
+    }
+
+    private static void writeOrders(Collection<Order> orders, DataOutput out) throws IOException {
+        out.writeInt(orders.size());
+        for (Order order : orders) {
+            writeOrder(order, out);
+        }
+    }
+
+    private static void writeEntries(List<Delta.Entry> entries, DataOutput out) throws IOException {
+        out.writeInt(entries.size());
+        for (Delta.Entry entry : entries) {
+            out.writeByte(entry.getAction() == null ? -1 : entry.getAction().ordinal());
+            writeOrder(new Order(entry.getId(), entry.getSide(), entry.getPrice(), entry.getSize()), out);
+        }
+    }
+
+    private static void writeOrder(Order order, DataOutput out) throws IOException {
+        int flags = (order.getId() != null ? HAS_ID : 0)
+                | (order.getPrice() != null ? HAS_PRICE : 0)
+                | (order.getSize() != null ? HAS_SIZE : 0)
+                | (order.getSide() != null ? HAS_SIDE : 0);
+        out.writeByte(flags);
+        if (order.getId() != null) {
+            out.writeLong(order.getId());
+        }
+        if (order.getPrice() != null) {
+            out.writeDouble(order.getPrice());
+        }
+        if (order.getSize() != null) {
+            out.writeLong(order.getSize());
+        }
+        if (order.getSide() != null) {
+            out.writeByte(order.getSide().ordinal());
+        }
+    }
+
+    @Override
+    public Delta read(ByteBuffer in) {
+        Delta delta = new Delta();
+        int flags = in.get();
+        if ((flags & HAS_NUMBER) != 0) {
+            delta.setNumber(in.getInt());
+        }
+        if ((flags & HAS_START) != 0) {
+            delta.setStartDateTime(readTime(in));
+        }
+        if ((flags & HAS_END) != 0) {
+            delta.setEndDateTime(readTime(in));
+        }
+        if ((flags & HAS_LOG) != 0) {
+            delta.setLogDateTime(readTime(in));
+        }
+        delta.setBookRefresh((flags & IS_BOOK_REFRESH) != 0);
+        if ((flags & IS_IN_JOURNAL) != 0) {
+            delta.setBook(journal, in.getInt());
+        } else {
+            byte[] symbol = new byte[in.getInt()];
+            in.get(symbol);
+            Book book = new Book(new String(symbol, StandardCharsets.UTF_8));
+            for (int i = in.getInt(); i > 0; i--) {
+                book.add(readOrder(in));
+            }
+            delta.setBook(book);
+        }
+        delta.setInputOrders(readEntries(in));
+        delta.setBookChanges(readEntries(in));
+        return delta;
+    }
+
+    private static LocalDateTime readTime(ByteBuffer in) {
+        return LocalDateTime.ofEpochSecond(in.getLong(), in.getInt(), ZoneOffset.UTC);
+    }
+
+    private static List<Delta.Entry> readEntries(ByteBuffer in) {
+        int count = in.getInt();
+        List<Delta.Entry> entries = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int action = in.get();
+            entries.add(new Delta.Entry(readOrder(in), action < 0 ? null : Action.values()[action]));
+        }
+        return entries;
+    }
+
+    private static Order readOrder(ByteBuffer in) {
+        int flags = in.get();
+        Order order = new Order();
+        if ((flags & HAS_ID) != 0) {
+            order.setId(in.getLong());
+        }
+        if ((flags & HAS_PRICE) != 0) {
+            order.setPrice(in.getDouble());
+        }
+        if ((flags & HAS_SIZE) != 0) {
+            order.setSize(in.getLong());
+        }
+        if ((flags & HAS_SIDE) != 0) {
+            order.setSide(Side.values()[in.get()]);
+        }
+        return order;
+    }
+}
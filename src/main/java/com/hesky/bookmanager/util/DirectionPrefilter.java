@@ -0,0 +1,52 @@
+package com.hesky.bookmanager.util;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Filters raw log lines by direction and session of their {@link LogPrefix} before decoding. Each direction has its own
+ * {@link LinePrefilter}, so that message types are accepted only in direction, where they are expected (market data requests
+ * are sent, market data is received). Lines of other sessions are skipped; lines without prefix are checked in both directions
+ */
+public class DirectionPrefilter {
+    private static final byte SOH = 1;
+
+    private final LinePrefilter inbound;
+    private final LinePrefilter outbound;
+    //SenderCompID of inbound and TargetCompID of outbound messages of chosen session, or null if all sessions are accepted
+    private final byte[] inboundSession;
+    private final byte[] outboundSession;
+
+    /**
+     * @param inbound  filter of received lines
+     * @param outbound filter of sent lines
+     * @param session  CompID of counterparty of chosen session or null for all sessions
+     */
+    public DirectionPrefilter(LinePrefilter inbound, LinePrefilter outbound, String session) {
+        this.inbound = inbound;
+        this.outbound = outbound;
+        this.inboundSession = session == null ? null : field("49", session);
+        this.outboundSession = session == null ? null : field("56", session);
+    }
+
+    private static byte[] field(String tag, String value) {
+        return (((char) SOH) + tag + "=" + value + ((char) SOH)).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param prefix prefix of line
+     * @param line   raw bytes of log line
+     * @param from   index of the first byte of line
+     * @param to     index after the last byte of line
+     * @return true if line has message type, which is accepted in its direction, contains symbol and belongs to chosen session
+     */
+    public boolean accept(LogPrefix prefix, byte[] line, int from, int to) {
+        boolean isInbound = !prefix.isValid() || prefix.getDirection() == LogPrefix.INBOUND;
+        boolean isOutbound = !prefix.isValid() || prefix.getDirection() == LogPrefix.OUTBOUND;
+        return isInbound && inbound.accept(line, from, to) && isSession(inboundSession, line, from, to)
+                || isOutbound && outbound.accept(line, from, to) && isSession(outboundSession, line, from, to);
+    }
+
+    private static boolean isSession(byte[] session, byte[] line, int from, int to) {
+        return session == null || LogLineReader.indexOf(line, from, to, session) >= 0;
+    }
+}
@@ -32,7 +32,10 @@ public class FixParser {
             msg = MessageUtils.parse(new DefaultMessageFactory(), DICTIONARY, message);
         }
         catch (InvalidMessage invalidMessage) {
-            LOG.error("Invalid message " + message, invalidMessage);
+            //message is formatted only when error level is enabled
+            if (LOG.isErrorEnabled()) {
+                LOG.error("Invalid message {}", message, invalidMessage);
+            }
         }
         return msg;
     }
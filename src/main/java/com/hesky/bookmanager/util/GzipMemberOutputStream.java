@@ -0,0 +1,107 @@
+package com.hesky.bookmanager.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Compresses data to gzip format (RFC 1952) as sequence of members. Concatenation of members is valid gzip file,
+ * so member is finished on each {@link #flush()} and data, which is written later (after checkpoint or by other thread),
+ * is appended as new member. Deflater is reused for all members of stream
+ */
+public class GzipMemberOutputStream extends OutputStream {
+    private static final byte[] HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0};
+    private static final int TRAILER_LENGTH = 8;
+
+    private final OutputStream out;
+    private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    private final CRC32 crc = new CRC32();
+    private final byte[] buffer = new byte[1 << 16];
+    //header of current member is written
+    private boolean isMemberStarted;
+
+    /**
+     * @param out destination of compressed data
+     */
+    public GzipMemberOutputStream(OutputStream out) {
+        this.out = out;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return;
+        }
+        if (!isMemberStarted) {
+            out.write(HEADER);
+            isMemberStarted = true;
+        }
+        crc.update(b, off, len);
+        deflater.setInput(b, off, len);
+        while (!deflater.needsInput()) {
+            deflate();
+        }
+    }
+
+    private void deflate() throws IOException {
+        int length = deflater.deflate(buffer, 0, buffer.length);
+        if (length > 0) {
+            out.write(buffer, 0, length);
+        }
+    }
+
+    /**
+     * Writes the rest of compressed data and trailer of current member; does nothing if no data was written after previous member
+     *
+     * @throws IOException if cannot write to underlying stream
+     */
+    public void finishMember() throws IOException {
+        if (!isMemberStarted) {
+            return;
+        }
+        deflater.finish();
+        while (!deflater.finished()) {
+            deflate();
+        }
+        writeIntLE(buffer, 0, (int) crc.getValue());
+        //size of uncompressed data modulo 2^32
+        writeIntLE(buffer, 4, (int) deflater.getBytesRead());
+        out.write(buffer, 0, TRAILER_LENGTH);
+        deflater.reset();
+        crc.reset();
+        isMemberStarted = false;
+    }
+
+    private static void writeIntLE(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) value;
+        bytes[offset + 1] = (byte) (value >> 8);
+        bytes[offset + 2] = (byte) (value >> 16);
+        bytes[offset + 3] = (byte) (value >> 24);
+    }
+
+    /**
+     * Finishes current member, so that all written data is in underlying stream
+     */
+    @Override
+    public void flush() throws IOException {
+        finishMember();
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            finishMember();
+            out.close();
+        }
+        finally {
+            deflater.end();
+        }
+    }
+}
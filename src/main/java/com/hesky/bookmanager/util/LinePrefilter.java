@@ -0,0 +1,96 @@
+package com.hesky.bookmanager.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Filters raw log lines before decoding: accepts only lines with chosen message type (tag 35) that contain one of chosen symbols.
+ * Symbols are searched by Boyer-Moore-Horspool with skip tables, which are precompiled once per filter
+ */
+public class LinePrefilter {
+    private static final byte SOH = 1;
+    private static final byte[] MSG_TYPE_TAG = {SOH, '3', '5', '='};
+
+    //accepted one-char message types
+    private final boolean[] acceptedTypes = new boolean[128];
+    private final byte[][] patterns;
+    //Horspool bad character shifts for each pattern
+    private final int[][] shifts;
+
+    /**
+     * @param symbols      trading symbols; line is accepted if contains at least one of them
+     * @param messageTypes accepted values of tag 35
+     */
+    public LinePrefilter(Collection<String> symbols, char... messageTypes) {
+        for (char type : messageTypes) {
+            acceptedTypes[type] = true;
+        }
+        patterns = new byte[symbols.size()][];
+        shifts = new int[symbols.size()][];
+        int i = 0;
+        for (String symbol : symbols) {
+            byte[] pattern = symbol.getBytes(StandardCharsets.UTF_8);
+            if (pattern.length == 0) {
+                throw new IllegalArgumentException("Symbol is empty");
+            }
+            patterns[i] = pattern;
+            shifts[i] = shiftTable(pattern);
+            i++;
+        }
+    }
+
+    private static int[] shiftTable(byte[] pattern) {
+        int[] shift = new int[256];
+        Arrays.fill(shift, pattern.length);
+        for (int i = 0; i < pattern.length - 1; i++) {
+            shift[pattern[i] & 0xFF] = pattern.length - 1 - i;
+        }
+        return shift;
+    }
+
+    /**
+     * @param line raw bytes of log line
+     * @param from index of the first byte of line
+     * @param to   index after the last byte of line
+     * @return true if line has accepted message type and contains one of symbols
+     */
+    public boolean accept(byte[] line, int from, int to) {
+        int typeIndex = LogLineReader.indexOf(line, from, to, MSG_TYPE_TAG);
+        if (typeIndex < 0) {
+            return false;
+        }
+        int type = typeIndex + MSG_TYPE_TAG.length;
+        //only one-char message types are accepted
+        if (type + 1 >= to || line[type + 1] != SOH || line[type] < 0 || !acceptedTypes[line[type]]) {
+            return false;
+        }
+        for (int i = 0; i < patterns.length; i++) {
+            if (find(line, from, to, patterns[i], shifts[i]) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Boyer-Moore-Horspool search
+     *
+     * @return index of the first occurrence of {@code pattern} in range [from, to) or -1 if was not found
+     */
+    static int find(byte[] bytes, int from, int to, byte[] pattern, int[] shift) {
+        int last = pattern.length - 1;
+        int i = from;
+        while (i + last < to) {
+            int j = last;
+            while (bytes[i + j] == pattern[j]) {
+                if (j == 0) {
+                    return i;
+                }
+                j--;
+            }
+            i += shift[bytes[i + last] & 0xFF];
+        }
+        return -1;
+    }
+}
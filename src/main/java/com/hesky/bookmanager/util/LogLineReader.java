@@ -0,0 +1,190 @@
+package com.hesky.bookmanager.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads log file line by line as raw bytes. Lines are not decoded to String until it is requested by {@link #getFixMessage()}
+ */
+public class LogLineReader implements Closeable {
+    private static final int DEFAULT_BUFFER_SIZE = 1 << 16;
+    private static final byte[] FIX_MESSAGE_START = " : ".getBytes(StandardCharsets.US_ASCII);
+
+    private final FileChannel channel;
+    private byte[] buffer;
+    //file offset of buffer[0]
+    private long bufferOffset;
+    //number of valid bytes in buffer
+    private int limit;
+    //position of first byte, which was not returned as a line yet
+    private int position;
+    //bounds of current line in buffer without line terminator
+    private int lineStart;
+    private int lineEnd;
+    private boolean eof;
+
+    public LogLineReader(Path file) throws IOException {
+        this(file, 0);
+    }
+
+    /**
+     * @param file   log file
+     * @param offset file offset of the first line, which should be read
+     * @throws IOException if cannot open file
+     */
+    public LogLineReader(Path file, long offset) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+        this.channel.position(offset);
+        this.bufferOffset = offset;
+        this.buffer = new byte[DEFAULT_BUFFER_SIZE];
+    }
+
+    /**
+     * Moves to the next line of file
+     *
+     * @return true if next line was read and false if end of file was reached
+     * @throws IOException if cannot read file
+     */
+    public boolean next() throws IOException {
+        while (true) {
+            for (int i = position; i < limit; i++) {
+                if (buffer[i] == '\n') {
+                    setLine(position, i);
+                    position = i + 1;
+                    return true;
+                }
+            }
+            if (eof) {
+                if (position < limit) {
+                    //last line without line terminator
+                    setLine(position, limit);
+                    position = limit;
+                    return true;
+                }
+                return false;
+            }
+            fill();
+        }
+    }
+
+    private void setLine(int start, int end) {
+        lineStart = start;
+        lineEnd = end > start && buffer[end - 1] == '\r' ? end - 1 : end;
+    }
+
+    /**
+     * Moves unread bytes to the beginning of buffer (growing it for very long lines) and reads next chunk of file
+     */
+    private void fill() throws IOException {
+        int remaining = limit - position;
+        if (position > 0) {
+            System.arraycopy(buffer, position, buffer, 0, remaining);
+            bufferOffset += position;
+            position = 0;
+            limit = remaining;
+        }
+        if (limit == buffer.length) {
+            byte[] grown = new byte[buffer.length * 2];
+            System.arraycopy(buffer, 0, grown, 0, limit);
+            buffer = grown;
+        }
+        int read = channel.read(ByteBuffer.wrap(buffer, limit, buffer.length - limit));
+        if (read < 0) {
+            eof = true;
+        } else {
+            limit += read;
+        }
+    }
+
+    /**
+     * @return buffer, which contains current line; valid only until next call of {@link #next()}
+     */
+    public byte[] buffer() {
+        return buffer;
+    }
+
+    /**
+     * @return index of the first byte of current line in {@link #buffer()}
+     */
+    public int start() {
+        return lineStart;
+    }
+
+    /**
+     * @return index after the last byte of current line in {@link #buffer()}
+     */
+    public int end() {
+        return lineEnd;
+    }
+
+    /**
+     * @return file offset of current line
+     */
+    public long offset() {
+        return bufferOffset + lineStart;
+    }
+
+    /**
+     * @return file offset of the line, that follows current line
+     */
+    public long nextOffset() {
+        return bufferOffset + position;
+    }
+
+    /**
+     * @return current line decoded to String
+     */
+    public String getLine() {
+        return new String(buffer, lineStart, lineEnd - lineStart, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Cuts the fix message from current line of logs (between ' : ' and the last space)
+     *
+     * @return decoded fix message or null if line has no fix message
+     */
+    public String getFixMessage() {
+        int from = indexOf(buffer, lineStart, lineEnd, FIX_MESSAGE_START);
+        if (from < 0) {
+            return null;
+        }
+        from += FIX_MESSAGE_START.length;
+        int to = lineEnd - 1;
+        while (to >= from && buffer[to] != ' ') {
+            to--;
+        }
+        if (to < from) {
+            return null;
+        }
+        return new String(buffer, from, to - from, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Naive search of short {@code pattern} in {@code bytes}
+     *
+     * @return index of the first occurrence of {@code pattern} in range [from, to) or -1 if was not found
+     */
+    static int indexOf(byte[] bytes, int from, int to, byte[] pattern) {
+        int last = to - pattern.length;
+        outer:
+        for (int i = from; i <= last; i++) {
+            for (int j = 0; j < pattern.length; j++) {
+                if (bytes[i + j] != pattern[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,142 @@
+package com.hesky.bookmanager.util;
+
+import java.time.LocalDateTime;
+
+/**
+ * Prefix of log line {@code seq:I|O:N yyyyMMdd-HH:mm:ss.SSS : }, which is parsed from raw bytes without decoding of line.
+ * One instance is reused for each line; log time is created only on request
+ */
+public class LogPrefix {
+    public static final char INBOUND = 'I';
+    public static final char OUTBOUND = 'O';
+    private static final long NANOS_PER_SECOND = 1_000_000_000L;
+
+    private boolean isValid;
+    //log sequence number of line
+    private long sequence;
+    //direction of message (I or O)
+    private char direction;
+    //date of log time as number yyyyMMdd
+    private int date;
+    private long nanoOfDay;
+
+    /**
+     * @param line raw bytes of log line
+     * @param from index of the first byte of line
+     * @param to   index after the last byte of line
+     * @return true if line starts with prefix; otherwise values of previous line are kept
+     */
+    public boolean parse(byte[] line, int from, int to) {
+        isValid = false;
+        int i = from;
+        long lineSequence = 0;
+        while (i < to && isDigit(line[i])) {
+            lineSequence = lineSequence * 10 + (line[i++] - '0');
+        }
+        if (i == from || i + 2 >= to || line[i] != ':' || line[i + 2] != ':') {
+            return false;
+        }
+        char lineDirection = (char) line[i + 1];
+        if (lineDirection != INBOUND && lineDirection != OUTBOUND) {
+            return false;
+        }
+        //flags of line are skipped
+        i += 3;
+        while (i < to && line[i] != ' ') {
+            i++;
+        }
+        //yyyyMMdd-HH:mm:ss.S
+        i++;
+        if (i + 19 > to || line[i + 8] != '-' || line[i + 11] != ':' || line[i + 14] != ':' || line[i + 17] != '.') {
+            return false;
+        }
+        int lineDate = number(line, i, 8);
+        int hour = number(line, i + 9, 2);
+        int minute = number(line, i + 12, 2);
+        int second = number(line, i + 15, 2);
+        if (lineDate < 0 || hour < 0 || minute < 0 || second < 0) {
+            return false;
+        }
+        long nanos = 0;
+        int digits = 0;
+        for (i += 18; i < to && isDigit(line[i]) && digits < 9; i++, digits++) {
+            nanos = nanos * 10 + (line[i] - '0');
+        }
+        if (digits == 0) {
+            return false;
+        }
+        for (; digits < 9; digits++) {
+            nanos *= 10;
+        }
+        sequence = lineSequence;
+        direction = lineDirection;
+        date = lineDate;
+        nanoOfDay = ((hour * 60L + minute) * 60 + second) * NANOS_PER_SECOND + nanos;
+        isValid = true;
+        return true;
+    }
+
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+
+    /**
+     * @return number of {@code length} digits or -1 if there is not digit
+     */
+    private static int number(byte[] line, int from, int length) {
+        int value = 0;
+        for (int i = from; i < from + length; i++) {
+            if (!isDigit(line[i])) {
+                return -1;
+            }
+            value = value * 10 + (line[i] - '0');
+        }
+        return value;
+    }
+
+    /**
+     * @return true if the last parsed line had prefix
+     */
+    public boolean isValid() {
+        return isValid;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public char getDirection() {
+        return direction;
+    }
+
+    /**
+     * @return date of log time as number yyyyMMdd
+     */
+    public int getDate() {
+        return date;
+    }
+
+    public long getNanoOfDay() {
+        return nanoOfDay;
+    }
+
+    /**
+     * @return time, when line was logged, or null if line had no prefix
+     */
+    public LocalDateTime getDateTime() {
+        if (!isValid) {
+            return null;
+        }
+        long secondOfDay = nanoOfDay / NANOS_PER_SECOND;
+        return LocalDateTime.of(date / 10000, date / 100 % 100, date % 100,
+                (int) (secondOfDay / 3600), (int) (secondOfDay / 60 % 60), (int) (secondOfDay % 60), (int) (nanoOfDay % NANOS_PER_SECOND));
+    }
+
+    /**
+     * Compares log times of prefixes
+     */
+    public int compareTime(LogPrefix other) {
+        int byDate = Integer.compare(date, other.date);
+        return byDate != 0 ? byDate : Long.compare(nanoOfDay, other.nanoOfDay);
+    }
+}
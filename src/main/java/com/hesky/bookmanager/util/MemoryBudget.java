@@ -0,0 +1,61 @@
+package com.hesky.bookmanager.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Estimated heap memory, which may be used by data of report building (lists of messages and deltas, snapshots of book).
+ * Data, which does not fit into budget, is kept in temporary files by {@link SpillList}
+ */
+public class MemoryBudget {
+    private final long maxBytes;
+    private final AtomicLong usedBytes = new AtomicLong();
+
+    /**
+     * @param maxBytes estimated heap memory, which may be used
+     */
+    public MemoryBudget(long maxBytes) {
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException("Budget should not be negative: " + maxBytes);
+        }
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @param bytes estimated size of data
+     * @return true if data fits into budget and its size was added to used memory
+     */
+    public boolean tryReserve(long bytes) {
+        long used;
+        do {
+            used = usedBytes.get();
+            if (used + bytes > maxBytes) {
+                return false;
+            }
+        } while (!usedBytes.compareAndSet(used, used + bytes));
+        return true;
+    }
+
+    /**
+     * Adds size of data, which cannot be moved out of heap, to used memory; budget may be exceeded
+     *
+     * @param bytes estimated size of data
+     */
+    public void reserve(long bytes) {
+        usedBytes.addAndGet(bytes);
+    }
+
+    /**
+     * @param bytes estimated size of data, which is not used anymore
+     */
+    public void release(long bytes) {
+        usedBytes.addAndGet(-bytes);
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public long getUsedBytes() {
+        return usedBytes.get();
+    }
+}
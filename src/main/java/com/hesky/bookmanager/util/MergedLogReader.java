@@ -0,0 +1,179 @@
+package com.hesky.bookmanager.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Reads lines of several log files (rotated files or files of several sessions) in order of their timestamps.
+ * Each file is read by its own {@link LogLineReader} with read-ahead buffer, readers are merged through heap by log time of
+ * current line ({@link LogPrefix}). Lines with equal timestamps keep order of files,
+ * lines without timestamp keep their place in file. Lines are not decoded, same as by {@link LogLineReader}.
+ * Reading may be resumed from offsets of each file ({@link #offsets()}), so that files are not read again from the start
+ */
+public class MergedLogReader implements Closeable {
+    private final List<Source> sources = new ArrayList<>();
+    //sources with current line, ordered by timestamp of line and index of file
+    private final PriorityQueue<Source> heap;
+    //source of current line, which is advanced on next call
+    private Source current;
+    //number of bytes of all files, which were returned as lines
+    private long position;
+
+    public MergedLogReader(List<Path> files) throws IOException {
+        this(files, null);
+    }
+
+    /**
+     * @param files   log files
+     * @param offsets offset of the first line, which should be read, of each file (see {@link #offsets()}) or null to read files from the start
+     * @throws IOException if cannot open or read files
+     */
+    public MergedLogReader(List<Path> files, long[] offsets) throws IOException {
+        if (offsets != null && offsets.length != files.size()) {
+            throw new IllegalArgumentException("Number of offsets " + offsets.length + " differs from number of files " + files.size());
+        }
+        this.heap = new PriorityQueue<>(Math.max(1, files.size()), MergedLogReader::compare);
+        try {
+            for (Path file : files) {
+                long offset = offsets == null ? 0 : offsets[sources.size()];
+                Source source = new Source(new LogLineReader(file, offset), sources.size());
+                sources.add(source);
+                //bytes of all files before offsets were returned as lines
+                position += offset;
+                if (source.advance()) {
+                    heap.add(source);
+                }
+            }
+        }
+        catch (IOException | RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    private static int compare(Source first, Source second) {
+        int byTime = first.prefix.compareTime(second.prefix);
+        return byTime != 0 ? byTime : Integer.compare(first.index, second.index);
+    }
+
+    /**
+     * Moves to the next line of merged files
+     *
+     * @return true if next line was read and false if end of all files was reached
+     * @throws IOException if cannot read file
+     */
+    public boolean next() throws IOException {
+        if (current != null && current.advance()) {
+            heap.add(current);
+        }
+        current = heap.poll();
+        if (current == null) {
+            return false;
+        }
+        position += current.reader.nextOffset() - current.reader.offset();
+        return true;
+    }
+
+    /**
+     * @return buffer, which contains current line; valid only until next call of {@link #next()}
+     */
+    public byte[] buffer() {
+        return current.reader.buffer();
+    }
+
+    /**
+     * @return index of the first byte of current line in {@link #buffer()}
+     */
+    public int start() {
+        return current.reader.start();
+    }
+
+    /**
+     * @return index after the last byte of current line in {@link #buffer()}
+     */
+    public int end() {
+        return current.reader.end();
+    }
+
+    /**
+     * @return total number of bytes of files before lines, which were not returned yet; file offset after current line for single file
+     */
+    public long nextOffset() {
+        return position;
+    }
+
+    /**
+     * @return offset of the first line, which was not returned yet, of each file; reading is resumed from these offsets
+     */
+    public long[] offsets() {
+        long[] offsets = new long[sources.size()];
+        for (Source source : sources) {
+            offsets[source.index] = source == current ? source.reader.nextOffset() : source.pendingOffset;
+        }
+        return offsets;
+    }
+
+    /**
+     * @return prefix of current line, which is not valid if line has no prefix
+     */
+    public LogPrefix prefix() {
+        return current.prefix;
+    }
+
+    /**
+     * @return decoded fix message of current line or null if line has no fix message
+     */
+    public String getFixMessage() {
+        return current.reader.getFixMessage();
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+        for (Source source : sources) {
+            try {
+                source.reader.close();
+            }
+            catch (IOException e) {
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Reader of one file with prefix of its current line
+     */
+    private static class Source {
+        private final LogLineReader reader;
+        private final int index;
+        //lines without prefix keep log time of previous line
+        private final LogPrefix prefix = new LogPrefix();
+        //offset of line, which was read, but was not returned yet, or end of file
+        private long pendingOffset;
+
+        Source(LogLineReader reader, int index) {
+            this.reader = reader;
+            this.index = index;
+        }
+
+        /**
+         * @return true if reader moved to the next line
+         */
+        boolean advance() throws IOException {
+            if (!reader.next()) {
+                pendingOffset = reader.nextOffset();
+                return false;
+            }
+            pendingOffset = reader.offset();
+            prefix.parse(reader.buffer(), reader.start(), reader.end());
+            return true;
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package com.hesky.bookmanager.util;
+
+import quickfix.Message;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Encodes FIX message as its text, which is parsed again on reading
+ */
+public class MessageCodec implements SpillList.Codec<Message> {
+    //estimated heap size of message header and of one market data entry of parsed message
+    private static final long MESSAGE_BYTES = 2048;
+    private static final long ENTRY_BYTES = 768;
+    private static final int NO_MD_ENTRIES = 268;
+
+    @Override
+    public long estimate(Message message) {
+        return MESSAGE_BYTES + ENTRY_BYTES * message.getGroupCount(NO_MD_ENTRIES);
+    }
+
+    @Override
+    public void write(Message message, DataOutput out) throws IOException {
+        byte[] bytes = message.toString().getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    @Override
+    public Message read(ByteBuffer in) throws IOException {
+        byte[] bytes = new byte[in.getInt()];
+        in.get(bytes);
+        Message message = FixParser.parse(new String(bytes, StandardCharsets.UTF_8));
+        if (message == null) {
+            throw new IOException("Cannot parse spilled message");
+        }
+        return message;
+    }
+}
@@ -0,0 +1,564 @@
+package com.hesky.bookmanager.util;
+
+import org.slf4j.Logger;
+import quickfix.DefaultMessageFactory;
+import quickfix.FieldNotFound;
+import quickfix.Group;
+import quickfix.Message;
+import quickfix.MessageFactory;
+import quickfix.UtcTimestampPrecision;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * On-disk cache of market data messages of one symbol, which were found in log files. Cache file is named by hash of
+ * log files identity (size, modification time and content of sampled blocks) and symbol, so changed log file gets new cache file.
+ * File layout: magic, version, key, then records of messages and counts of {@link SequenceTracker} of parsed log files
+ * (duplicates, gaps, missing messages and restarts). Record keeps decoded fields, which are used by book processing, so message is not parsed again:
+ * length of record, sending time and log time as epoch seconds and nanos, message type (35), sequence number (34),
+ * subscription type (263) and market data entries with update action (279), entry type (269), id (278), price (270) and size (271).
+ * Cache files are memory-mapped on reading; the least recently used files are deleted, when total size exceeds disk budget
+ */
+public class ParseCache {
+    private static final Logger LOG = getLogger(ParseCache.class);
+    private static final int MAGIC = 0x424D5043;
+    //version 2 does not contain possible duplicates of messages, version 3 contains messages only in expected direction,
+    //version 4 ends with counts of sequence numbers, version 5 contains decoded records instead of FIX messages
+    private static final byte VERSION = 5;
+    private static final int COUNTS_SIZE = 4 * Long.BYTES;
+    //sending time, log time, type, sequence number, subscription type and number of entries
+    private static final int RECORD_HEADER_SIZE = 2 * (Long.BYTES + Integer.BYTES) + 1 + 3 * Integer.BYTES;
+    //set fields, update action, entry type, id, price and size
+    private static final int ENTRY_SIZE = 3 + 3 * Long.BYTES;
+    //log time of messages without log prefix
+    private static final long NO_LOG_TIME = Long.MIN_VALUE;
+    //fields of market data entry, which are kept in record
+    private static final int[] ENTRY_TAGS = {279, 269, 278, 270, 271};
+    private static final String BEGIN_STRING = "FIX.4.4";
+    private static final MessageFactory MESSAGE_FACTORY = new DefaultMessageFactory();
+    private static final String SUFFIX = ".events";
+    //blocks of log file, which are hashed
+    private static final int SAMPLES = 16;
+    private static final int SAMPLE_SIZE = 4096;
+
+    private final Path directory;
+    private final long maxBytes;
+
+    /**
+     * @param directory directory of cache files, which is created on the first write
+     * @param maxBytes  disk budget of cache files
+     */
+    public ParseCache(Path directory, long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @param logFile log file
+     * @param symbol  trading symbol
+     * @return key of messages of {@code symbol} in current content of {@code logFile}
+     * @throws IOException if cannot read log file
+     */
+    public static String key(Path logFile, String symbol) throws IOException {
+        return key(Collections.singletonList(logFile), symbol);
+    }
+
+    /**
+     * @param logFiles log files, which are merged by time
+     * @param symbol   trading symbol with other filters of messages
+     * @return key of messages of {@code symbol} in current content of {@code logFiles}
+     * @throws IOException if cannot read log file
+     */
+    public static String key(List<Path> logFiles, String symbol) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        ByteBuffer sample = ByteBuffer.allocate(SAMPLE_SIZE);
+        for (Path logFile : logFiles) {
+            try (FileChannel channel = FileChannel.open(logFile, StandardOpenOption.READ)) {
+                long size = channel.size();
+                digest.update((size + "|" + Files.getLastModifiedTime(logFile).toMillis() + "|" + symbol + "|").getBytes(StandardCharsets.UTF_8));
+                //first and last blocks and blocks evenly spaced between them
+                for (int i = 0; i < SAMPLES; i++) {
+                    long position = Math.max(0, size - SAMPLE_SIZE) * i / (SAMPLES - 1);
+                    sample.clear();
+                    while (sample.hasRemaining() && channel.read(sample, position + sample.position()) > 0) {
+                        //read until block is full or end of file
+                    }
+                    sample.flip();
+                    digest.update(sample);
+                }
+            }
+        }
+        StringBuilder key = new StringBuilder();
+        for (byte b : digest.digest()) {
+            key.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return key.toString();
+    }
+
+    /**
+     * @param key key of messages
+     * @return reader of cached messages or null if there are no messages for {@code key}
+     */
+    public Reader read(String key) {
+        Path file = directory.resolve(key + SUFFIX);
+        if (!Files.exists(file)) {
+            return null;
+        }
+        try {
+            Reader reader = new Reader(file);
+            if (reader.buffer.getInt() != MAGIC || reader.buffer.get() != VERSION || !key.equals(reader.readKey())) {
+                LOG.warn("Unknown parse cache format: {}", file);
+                reader.close();
+                return null;
+            }
+            //last access time for eviction
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+            return reader;
+        }
+        catch (IOException | RuntimeException e) {
+            LOG.warn("Cannot read parse cache {}", file, e);
+            return null;
+        }
+    }
+
+    /**
+     * @param key key of messages
+     * @return writer of messages, which are available for reading after {@link Writer#commit(SequenceTracker)}
+     * @throws IOException if cannot create cache file
+     */
+    public Writer write(String key) throws IOException {
+        Files.createDirectories(directory);
+        return new Writer(key);
+    }
+
+    /**
+     * Deletes the least recently used cache files while total size exceeds disk budget
+     */
+    private void evict() throws IOException {
+        List<Path> files;
+        try (Stream<Path> list = Files.list(directory)) {
+            files = list.filter(file -> file.getFileName().toString().endsWith(SUFFIX)).collect(Collectors.toCollection(ArrayList::new));
+        }
+        long total = 0;
+        for (Path file : files) {
+            total += Files.size(file);
+        }
+        files.sort(Comparator.comparing(ParseCache::lastModified));
+        for (Path file : files) {
+            if (total <= maxBytes) {
+                break;
+            }
+            long fileSize = Files.size(file);
+            try {
+                Files.deleteIfExists(file);
+                total -= fileSize;
+                LOG.debug("Evicted parse cache {}", file);
+            }
+            catch (IOException e) {
+                //file may be mapped by other reader
+                LOG.debug("Cannot evict parse cache {}", file, e);
+            }
+        }
+    }
+
+    /**
+     * @return the only character of {@code value}
+     */
+    private static char readChar(String value) {
+        if (value.length() != 1) {
+            throw new IllegalArgumentException("Field should have one character: " + value);
+        }
+        return value.charAt(0);
+    }
+
+    /**
+     * @return precision of sending time, which keeps all its digits
+     */
+    private static UtcTimestampPrecision precision(LocalDateTime time) {
+        int nanos = time.getNano();
+        if (nanos % 1_000_000 == 0) {
+            return UtcTimestampPrecision.MILLIS;
+        }
+        return nanos % 1000 == 0 ? UtcTimestampPrecision.MICROS : UtcTimestampPrecision.NANOS;
+    }
+
+    private static FileTime lastModified(Path file) {
+        try {
+            return Files.getLastModifiedTime(file);
+        }
+        catch (IOException e) {
+            return FileTime.fromMillis(0);
+        }
+    }
+
+    /**
+     * Writes messages to temporary file, which is moved to cache on commit.
+     * Message, which cannot be kept as record, stops writing, so that cache file is not created for incomplete messages
+     */
+    public class Writer implements Closeable {
+        private final String key;
+        private final Path file;
+        private final DataOutputStream out;
+        //record of one message, which is written after its length is known
+        private final ByteArrayOutputStream recordBytes = new ByteArrayOutputStream(1024);
+        private final DataOutputStream record = new DataOutputStream(recordBytes);
+        private boolean isCommitted;
+        private boolean isFailed;
+
+        private Writer(String key) throws IOException {
+            this.key = key;
+            this.file = Files.createTempFile(directory, key, ".tmp");
+            this.out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 1 << 16));
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeUTF(key);
+        }
+
+        /**
+         * @param message FIX message (35=V, 35=W or 35=X)
+         * @param logTime time of writing message to log or null if it is unknown
+         * @throws IOException if cannot write to cache file
+         */
+        public void add(Message message, LocalDateTime logTime) throws IOException {
+            if (isFailed) {
+                return;
+            }
+            recordBytes.reset();
+            try {
+                writeRecord(message, logTime);
+            }
+            catch (FieldNotFound | RuntimeException e) {
+                LOG.info("Parse cache is not written, message cannot be cached: {}", message, e);
+                isFailed = true;
+                return;
+            }
+            out.writeInt(recordBytes.size());
+            recordBytes.writeTo(out);
+        }
+
+        private void writeRecord(Message message, LocalDateTime logTime) throws IOException, FieldNotFound {
+            writeTime(message.getHeader().getUtcTimeStamp(52));
+            if (logTime != null) {
+                writeTime(logTime);
+            } else {
+                record.writeLong(NO_LOG_TIME);
+                record.writeInt(0);
+            }
+            record.writeByte(readChar(message.getHeader().getString(35)));
+            record.writeInt(message.getHeader().getInt(34));
+            record.writeInt(message.isSetField(263) ? message.getInt(263) : -1);
+            List<Group> groups = message.getGroups(268);
+            record.writeInt(groups.size());
+            for (Group group : groups) {
+                int fields = 0;
+                for (int i = 0; i < ENTRY_TAGS.length; i++) {
+                    if (group.isSetField(ENTRY_TAGS[i])) {
+                        fields |= 1 << i;
+                    }
+                }
+                record.writeByte(fields);
+                record.writeByte(group.isSetField(279) ? readChar(group.getString(279)) : 0);
+                record.writeByte(group.isSetField(269) ? readChar(group.getString(269)) : 0);
+                record.writeLong(group.isSetField(278) ? BookManagerUtil.readLong(group, 278) : 0);
+                record.writeDouble(group.isSetField(270) ? group.getDouble(270) : 0);
+                record.writeLong(group.isSetField(271) ? BookManagerUtil.readLong(group, 271) : 0);
+            }
+        }
+
+        private void writeTime(LocalDateTime time) throws IOException {
+            record.writeLong(time.toEpochSecond(ZoneOffset.UTC));
+            record.writeInt(time.getNano());
+        }
+
+        /**
+         * Makes written messages available for reading and evicts old cache files
+         *
+         * @param tracker tracker of sequence numbers of all lines of log files, whose counts are cached with messages
+         * @throws IOException if cannot move file to cache
+         */
+        public void commit(SequenceTracker tracker) throws IOException {
+            if (isFailed) {
+                return;
+            }
+            out.writeLong(tracker.getDuplicates());
+            out.writeLong(tracker.getGaps());
+            out.writeLong(tracker.getMissing());
+            out.writeLong(tracker.getRestarts());
+            out.close();
+            Files.move(file, directory.resolve(key + SUFFIX), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            isCommitted = true;
+            evict();
+        }
+
+        /**
+         * Deletes temporary file, if messages were not committed
+         */
+        @Override
+        public void close() throws IOException {
+            if (!isCommitted) {
+                out.close();
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    /**
+     * Reads messages from memory-mapped cache file. Window of file is mapped, so file may be larger than 2GB
+     */
+    public static class Reader implements Closeable {
+        private static final long WINDOW = 1 << 30;
+
+        private final FileChannel channel;
+        //end of entries, which are followed by counts of sequence numbers
+        private final long size;
+        private final long duplicates;
+        private final long gaps;
+        private final long missing;
+        private final long restarts;
+        private MappedByteBuffer buffer;
+        //position of mapped window in file
+        private long windowStart;
+        private LocalDateTime time;
+        private LocalDateTime logTime;
+        //fields of current record after times, which are decoded on demand
+        private long recordStart;
+        private int recordLength;
+
+        private Reader(Path file) throws IOException {
+            this.channel = FileChannel.open(file, StandardOpenOption.READ);
+            try {
+                this.size = channel.size() - COUNTS_SIZE;
+                if (size < 0) {
+                    throw new IOException("Parse cache is truncated");
+                }
+                ByteBuffer counts = ByteBuffer.allocate(COUNTS_SIZE);
+                while (counts.hasRemaining() && channel.read(counts, size + counts.position()) > 0) {
+                    //read until counts are complete
+                }
+                counts.flip();
+                this.duplicates = counts.getLong();
+                this.gaps = counts.getLong();
+                this.missing = counts.getLong();
+                this.restarts = counts.getLong();
+                map(0);
+            }
+            catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        private void map(long position) throws IOException {
+            windowStart = position;
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(WINDOW, size - position));
+        }
+
+        private String readKey() throws IOException {
+            ensure(2);
+            int length = buffer.getShort() & 0xFFFF;
+            ensure(length);
+            byte[] key = new byte[length];
+            buffer.get(key);
+            return new String(key, StandardCharsets.UTF_8);
+        }
+
+        /**
+         * Maps next window, if current window has less than {@code length} bytes
+         */
+        private void ensure(int length) throws IOException {
+            if (buffer.remaining() < length) {
+                long position = windowStart + buffer.position();
+                if (size - position < length) {
+                    throw new IOException("Parse cache is truncated");
+                }
+                map(position);
+            }
+        }
+
+        /**
+         * Reads times of next message; other fields are decoded by {@link #getMessage()}
+         *
+         * @return true if next message was read, false at the end of file
+         * @throws IOException if cannot read cache file
+         */
+        public boolean next() throws IOException {
+            if (windowStart + buffer.position() == size) {
+                return false;
+            }
+            ensure(Integer.BYTES);
+            int length = buffer.getInt();
+            if (length < RECORD_HEADER_SIZE) {
+                throw new IOException("Parse cache is corrupted");
+            }
+            ensure(length);
+            recordStart = windowStart + buffer.position();
+            recordLength = length;
+            time = readTime();
+            long logSeconds = buffer.getLong();
+            int logNanos = buffer.getInt();
+            logTime = logSeconds == NO_LOG_TIME ? null : LocalDateTime.ofEpochSecond(logSeconds, logNanos, ZoneOffset.UTC);
+            buffer.position(buffer.position() + length - 2 * (Long.BYTES + Integer.BYTES));
+            return true;
+        }
+
+        private LocalDateTime readTime() {
+            return LocalDateTime.ofEpochSecond(buffer.getLong(), buffer.getInt(), ZoneOffset.UTC);
+        }
+
+        /**
+         * @return sending time of current message
+         */
+        public LocalDateTime getTime() {
+            return time;
+        }
+
+        /**
+         * @return time of writing current message to log or null if it is unknown
+         */
+        public LocalDateTime getLogTime() {
+            return logTime;
+        }
+
+        /**
+         * Creates FIX message from fields of current record without parsing
+         *
+         * @return current FIX message or null if record cannot be decoded
+         */
+        public Message getMessage() {
+            int end = buffer.position();
+            //record is in current window, because window is mapped only by next
+            buffer.position((int) (recordStart - windowStart) + 2 * (Long.BYTES + Integer.BYTES));
+            try {
+                String type = String.valueOf((char) buffer.get());
+                Message message = MESSAGE_FACTORY.create(BEGIN_STRING, type);
+                message.getHeader().setInt(34, buffer.getInt());
+                message.getHeader().setUtcTimeStamp(52, time, precision(time));
+                int subscription = buffer.getInt();
+                if (subscription >= 0) {
+                    message.setInt(263, subscription);
+                }
+                int entries = buffer.getInt();
+                if (entries < 0 || (long) entries * ENTRY_SIZE != recordLength - RECORD_HEADER_SIZE) {
+                    return null;
+                }
+                for (int i = 0; i < entries; i++) {
+                    message.addGroup(readEntry(type));
+                }
+                return message;
+            }
+            catch (BufferUnderflowException | IllegalArgumentException e) {
+                return null;
+            }
+            finally {
+                buffer.position(end);
+            }
+        }
+
+        private Group readEntry(String type) {
+            int fields = buffer.get();
+            char action = (char) buffer.get();
+            char entryType = (char) buffer.get();
+            long id = buffer.getLong();
+            double price = buffer.getDouble();
+            long entrySize = buffer.getLong();
+            Group group = MESSAGE_FACTORY.create(BEGIN_STRING, type, 268);
+            if (group == null) {
+                throw new IllegalArgumentException("Message has no market data entries: " + type);
+            }
+            if ((fields & 1) != 0) {
+                group.setChar(279, action);
+            }
+            if ((fields & 2) != 0) {
+                group.setChar(269, entryType);
+            }
+            if ((fields & 4) != 0) {
+                group.setString(278, Long.toString(id));
+            }
+            //plain decimal of the shortest representation keeps the same double
+            if ((fields & 8) != 0) {
+                group.setString(270, BigDecimal.valueOf(price).toPlainString());
+            }
+            if ((fields & 16) != 0) {
+                group.setString(271, Long.toString(entrySize));
+            }
+            return group;
+        }
+
+        /**
+         * @return position of the end of current record in file, which grows up to {@link #size()}
+         */
+        public long position() {
+            return recordStart + recordLength;
+        }
+
+        /**
+         * @return size of records in file
+         */
+        public long size() {
+            return size;
+        }
+
+        /**
+         * @return number of possible duplicates, which were dropped from log files
+         */
+        public long getDuplicates() {
+            return duplicates;
+        }
+
+        /**
+         * @return number of gaps of sequence numbers in log files
+         */
+        public long getGaps() {
+            return gaps;
+        }
+
+        /**
+         * @return number of messages in gaps, which did not arrive out of order
+         */
+        public long getMissing() {
+            return missing;
+        }
+
+        /**
+         * @return number of restarted sequences in log files
+         */
+        public long getRestarts() {
+            return restarts;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,253 @@
+package com.hesky.bookmanager.util;
+
+import org.slf4j.Logger;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Tracks sequence numbers (tag 34) of FIX messages in raw log lines per session (direction of line, SenderCompID and TargetCompID),
+ * drops possible duplicates (43=Y) of messages, which were already seen, and flags gaps of sequence numbers.
+ * Each session keeps ring bitset of the last sequence numbers, so that messages, which arrive out of order within window,
+ * are accepted and fill gaps. Message without PossDup flag, which repeats seen sequence number, starts new sequence of session
+ * (e.g. after logon with sequence reset). Direction of line is part of session, so that message, which is logged in both directions
+ * (e.g. echo of received message), is not a repeat. Lines are scanned without decoding and without allocation
+ */
+public class SequenceTracker {
+    private static final Logger LOG = getLogger(SequenceTracker.class);
+    public static final int DEFAULT_WINDOW = 4096;
+    private static final byte SOH = 1;
+    private static final byte[] SEQUENCE_TAG = {SOH, '3', '4', '='};
+    private static final byte[] POSS_DUP_TAG = {SOH, '4', '3', '=', 'Y', SOH};
+    private static final byte[] SENDER_TAG = {SOH, '4', '9', '='};
+    private static final byte[] TARGET_TAG = {SOH, '5', '6', '='};
+
+    private final int window;
+    private final List<Session> sessions = new ArrayList<>();
+    private long duplicates;
+    private long gaps;
+    //messages of gaps, which did not arrive later
+    private long missing;
+    private long restarts;
+
+    public SequenceTracker() {
+        this(DEFAULT_WINDOW);
+    }
+
+    /**
+     * @param window number of the last sequence numbers of session, which are remembered (power of two)
+     */
+    public SequenceTracker(int window) {
+        if (window < 64 || Integer.bitCount(window) != 1) {
+            throw new IllegalArgumentException("Window should be power of two not less than 64: " + window);
+        }
+        this.window = window;
+    }
+
+    /**
+     * @param line raw bytes of log line without direction
+     * @param from index of the first byte of line
+     * @param to   index after the last byte of line
+     * @return false if line contains duplicate of message, which was already seen; true otherwise, also for lines without sequence number
+     */
+    public boolean accept(byte[] line, int from, int to) {
+        return accept((char) 0, line, from, to);
+    }
+
+    /**
+     * @param direction direction of line ({@link LogPrefix#INBOUND} or {@link LogPrefix#OUTBOUND}) or 0 if it is unknown
+     * @param line      raw bytes of log line
+     * @param from      index of the first byte of line
+     * @param to        index after the last byte of line
+     * @return false if line contains duplicate of message, which was already seen; true otherwise, also for lines without sequence number
+     */
+    public boolean accept(char direction, byte[] line, int from, int to) {
+        int sequenceIndex = LogLineReader.indexOf(line, from, to, SEQUENCE_TAG);
+        if (sequenceIndex < 0) {
+            return true;
+        }
+        long sequence = 0;
+        int digits = 0;
+        for (int i = sequenceIndex + SEQUENCE_TAG.length; i < to && line[i] >= '0' && line[i] <= '9' && digits < 18; i++, digits++) {
+            sequence = sequence * 10 + (line[i] - '0');
+        }
+        if (digits == 0) {
+            return true;
+        }
+        Session session = session(direction, line, from, to);
+        return session.track(sequence, LogLineReader.indexOf(line, from, to, POSS_DUP_TAG) >= 0);
+    }
+
+    /**
+     * @return session of direction, SenderCompID and TargetCompID of line, which is created for new session
+     */
+    private Session session(char direction, byte[] line, int from, int to) {
+        int senderFrom = valueIndex(line, from, to, SENDER_TAG);
+        int senderTo = valueEnd(line, senderFrom, to);
+        int targetFrom = valueIndex(line, from, to, TARGET_TAG);
+        int targetTo = valueEnd(line, targetFrom, to);
+        for (Session session : sessions) {
+            if (session.direction == direction && equals(session.sender, line, senderFrom, senderTo) && equals(session.target, line, targetFrom, targetTo)) {
+                return session;
+            }
+        }
+        Session session = new Session(direction, Arrays.copyOfRange(line, senderFrom, senderTo), Arrays.copyOfRange(line, targetFrom, targetTo));
+        sessions.add(session);
+        return session;
+    }
+
+    /**
+     * @return index of value of {@code tag} or {@code to} if line has no such tag
+     */
+    private static int valueIndex(byte[] line, int from, int to, byte[] tag) {
+        int index = LogLineReader.indexOf(line, from, to, tag);
+        return index < 0 ? to : index + tag.length;
+    }
+
+    private static int valueEnd(byte[] line, int from, int to) {
+        int end = from;
+        while (end < to && line[end] != SOH) {
+            end++;
+        }
+        return end;
+    }
+
+    private static boolean equals(byte[] value, byte[] line, int from, int to) {
+        if (value.length != to - from) {
+            return false;
+        }
+        for (int i = 0; i < value.length; i++) {
+            if (value[i] != line[from + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return number of dropped duplicates
+     */
+    public long getDuplicates() {
+        return duplicates;
+    }
+
+    /**
+     * @return number of gaps of sequence numbers
+     */
+    public long getGaps() {
+        return gaps;
+    }
+
+    /**
+     * @return number of messages in gaps, which did not arrive out of order
+     */
+    public long getMissing() {
+        return missing;
+    }
+
+    /**
+     * @return number of sequences, which were restarted by repeated sequence number without PossDup flag
+     */
+    public long getRestarts() {
+        return restarts;
+    }
+
+    /**
+     * Sequence numbers of one direction of FIX session
+     */
+    private class Session {
+        private final char direction;
+        private final byte[] sender;
+        private final byte[] target;
+        //seen sequence numbers from highest - window + 1 to highest, bit of number is at number mod window
+        private final long[] seen = new long[window / 64];
+        private long highest = -1;
+        //sequence number, which started current sequence; numbers before it are not gaps
+        private long first;
+
+        Session(char direction, byte[] sender, byte[] target) {
+            this.direction = direction;
+            this.sender = sender;
+            this.target = target;
+        }
+
+        /**
+         * @return false if message is duplicate
+         */
+        boolean track(long sequence, boolean isPossDup) {
+            if (highest < 0) {
+                restart(sequence);
+                return true;
+            }
+            if (sequence > highest) {
+                if (sequence > highest + 1) {
+                    gaps++;
+                    missing += sequence - highest - 1;
+                    if (LOG.isDebugEnabled()) {
+                        LOG.debug("Gap of sequence numbers {}-{} from {} to {}", highest + 1, sequence - 1, name(sender), name(target));
+                    }
+                }
+                advance(sequence);
+                return true;
+            }
+            boolean isInWindow = sequence > highest - window && sequence > first;
+            if (isInWindow && !isSeen(sequence)) {
+                //message of gap arrived out of order or was resent
+                mark(sequence);
+                missing--;
+                return true;
+            }
+            if (isPossDup) {
+                duplicates++;
+                return false;
+            }
+            restarts++;
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Sequence of {} to {} is restarted from {} after {}", name(sender), name(target), sequence, highest);
+            }
+            restart(sequence);
+            return true;
+        }
+
+        private void restart(long sequence) {
+            Arrays.fill(seen, 0);
+            first = sequence;
+            highest = sequence;
+            mark(sequence);
+        }
+
+        /**
+         * Moves window to {@code sequence} and forgets numbers, which leave window
+         */
+        private void advance(long sequence) {
+            if (sequence - highest >= window) {
+                Arrays.fill(seen, 0);
+            } else {
+                for (long i = highest + 1; i <= sequence; i++) {
+                    int bit = (int) (i & (window - 1));
+                    seen[bit >>> 6] &= ~(1L << bit);
+                }
+            }
+            highest = sequence;
+            mark(sequence);
+        }
+
+        private boolean isSeen(long sequence) {
+            int bit = (int) (sequence & (window - 1));
+            return (seen[bit >>> 6] & (1L << bit)) != 0;
+        }
+
+        private void mark(long sequence) {
+            int bit = (int) (sequence & (window - 1));
+            seen[bit >>> 6] |= 1L << bit;
+        }
+
+        private String name(byte[] id) {
+            return new String(id, StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package com.hesky.bookmanager.util;
+
+import org.slf4j.Logger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Append-only list, which keeps elements in heap while they fit into {@link MemoryBudget}. When budget is exceeded,
+ * this and following elements are encoded to temporary file and decoded from memory-mapped file on each access,
+ * so that large run is completed slower instead of running out of memory.
+ * List should be closed, when it is not needed, to return memory to budget and delete temporary file
+ *
+ * @param <T> type of elements
+ */
+public class SpillList<T> extends AbstractList<T> implements RandomAccess, Closeable {
+    private static final Logger LOG = getLogger(SpillList.class);
+    private static final long WINDOW = 1 << 28;
+
+    private final Codec<T> codec;
+    private final MemoryBudget budget;
+    private final List<T> inMemory = new ArrayList<>();
+    private long reservedBytes;
+    //spilled elements: file, start of each element and end of the last one
+    private FileChannel channel;
+    private long[] offsets = new long[1024];
+    private int spilled;
+    private long fileSize;
+    private final ByteArrayOutputStream encoded = new ByteArrayOutputStream(256);
+    private final DataOutputStream out = new DataOutputStream(encoded);
+    //mapped part of file
+    private MappedByteBuffer window;
+    private long windowStart;
+
+    /**
+     * @param codec  encoding of elements
+     * @param budget shared memory budget
+     */
+    public SpillList(Codec<T> codec, MemoryBudget budget) {
+        this.codec = codec;
+        this.budget = budget;
+    }
+
+    @Override
+    public synchronized boolean add(T element) {
+        long bytes = codec.estimate(element);
+        if (channel == null && budget.tryReserve(bytes)) {
+            reservedBytes += bytes;
+            inMemory.add(element);
+            return true;
+        }
+        try {
+            spill(element);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException("Cannot write element to temporary file", e);
+        }
+        return true;
+    }
+
+    private void spill(T element) throws IOException {
+        if (channel == null) {
+            Path file = Files.createTempFile("bookmanager", ".spill");
+            file.toFile().deleteOnExit();
+            channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+            LOG.info("Memory budget of {} bytes is exceeded, elements are spilled to {}", budget.getMaxBytes(), file);
+        }
+        encoded.reset();
+        codec.write(element, out);
+        ByteBuffer bytes = ByteBuffer.wrap(encoded.toByteArray());
+        while (bytes.hasRemaining()) {
+            channel.write(bytes, fileSize + bytes.position());
+        }
+        if (spilled + 1 >= offsets.length) {
+            offsets = Arrays.copyOf(offsets, offsets.length * 2);
+        }
+        offsets[spilled++] = fileSize;
+        fileSize += encoded.size();
+        offsets[spilled] = fileSize;
+    }
+
+    /**
+     * Adds memory of data, which is referenced by elements and cannot be spilled (e.g. snapshots of deltas in journal),
+     * to memory of list; following elements are spilled, if budget is exceeded
+     *
+     * @param bytes estimated size of data
+     */
+    public synchronized void reserve(long bytes) {
+        budget.reserve(bytes);
+        reservedBytes += bytes;
+    }
+
+    @Override
+    public synchronized T get(int index) {
+        if (index < inMemory.size()) {
+            return inMemory.get(index);
+        }
+        int i = index - inMemory.size();
+        if (i >= spilled) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size());
+        }
+        try {
+            return codec.read(map(offsets[i], (int) (offsets[i + 1] - offsets[i])));
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException("Cannot read element from temporary file", e);
+        }
+    }
+
+    /**
+     * @return buffer positioned at {@code position} of file with at least {@code length} bytes; window is remapped
+     * if element is out of it or was written after mapping
+     */
+    private ByteBuffer map(long position, int length) throws IOException {
+        if (window == null || position < windowStart || position + length > windowStart + window.capacity()) {
+            windowStart = position;
+            window = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.max(length, Math.min(WINDOW, fileSize - position)));
+        }
+        ByteBuffer buffer = window.duplicate();
+        buffer.position((int) (position - windowStart));
+        return buffer;
+    }
+
+    @Override
+    public synchronized int size() {
+        return inMemory.size() + spilled;
+    }
+
+    /**
+     * @return number of elements, which are kept in temporary file
+     */
+    public synchronized int getSpilled() {
+        return spilled;
+    }
+
+    /**
+     * Returns memory of elements to budget and deletes temporary file
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        budget.release(reservedBytes);
+        reservedBytes = 0;
+        inMemory.clear();
+        spilled = 0;
+        fileSize = 0;
+        window = null;
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    /**
+     * Encoding of elements for temporary file
+     *
+     * @param <T> type of elements
+     */
+    public interface Codec<T> {
+        /**
+         * @return estimated heap size of {@code element}
+         */
+        long estimate(T element);
+
+        void write(T element, DataOutput out) throws IOException;
+
+        /**
+         * @param in buffer positioned at encoded element
+         */
+        T read(ByteBuffer in) throws IOException;
+    }
+}
@@ -0,0 +1,222 @@
+package com.hesky.bookmanager.util;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+
+/**
+ * Formats prices, sizes, ids and times of report into reusable char buffer; text is the same as toString of Double, Long and LocalDateTime.
+ * Append methods copy the buffer straight into destination of report, so no string is created per value.
+ * Prices up to {@value #MAX_SCALE} decimal places are written as fixed-point number without Double.toString.
+ * Date, hours and minutes are cached, because consecutive messages of log are sent in the same minute.
+ * Encoder is not thread safe
+ */
+public class ValueEncoder {
+    //decimal places of price, which are written by encoder; other prices are formatted by Double.toString
+    private static final int MAX_SCALE = 8;
+    //prices with fixed-point form, prices out of range are written in scientific notation by Double.toString
+    private static final double MIN_PRICE = 1e-3;
+    private static final double MAX_PRICE = 1e7;
+    private static final long[] POWERS_OF_TEN = new long[19];
+    //length of "yyyy-MM-ddTHH:mm"
+    private static final int MINUTE_LENGTH = 16;
+    //price of delete entries
+    private static final String ZERO = "0.0";
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
+    private final char[] buffer = new char[32];
+    private int length;
+    //minute of cached date and time prefix (minutes since epoch)
+    private long cachedMinute = Long.MIN_VALUE;
+    private final char[] minutePrefix = new char[MINUTE_LENGTH];
+
+    /**
+     * @param price price of order
+     * @return shortest decimal, which is parsed to the same {@code price}, as Double.toString
+     */
+    public String price(double price) {
+        String text = encodePrice(price);
+        return text == null ? new String(buffer, 0, length) : text;
+    }
+
+    /**
+     * Writes {@code price} as {@link #price(double)} into {@code out}
+     */
+    public void appendPrice(double price, Appendable out) throws IOException {
+        append(encodePrice(price), out);
+    }
+
+    /**
+     * @param value size, id or other integer
+     * @return decimal digits of {@code value}
+     */
+    public String integer(long value) {
+        String text = encodeInteger(value);
+        return text == null ? new String(buffer, 0, length) : text;
+    }
+
+    /**
+     * Writes {@code value} as {@link #integer(long)} into {@code out}
+     */
+    public void appendInteger(long value, Appendable out) throws IOException {
+        append(encodeInteger(value), out);
+    }
+
+    /**
+     * @param time time of message
+     * @return time in ISO-8601 format as LocalDateTime.toString, e.g. 2015-03-03T10:15:30.123
+     */
+    public String dateTime(LocalDateTime time) {
+        String text = encodeDateTime(time);
+        return text == null ? new String(buffer, 0, length) : text;
+    }
+
+    /**
+     * Writes {@code time} as {@link #dateTime(LocalDateTime)} into {@code out}
+     */
+    public void appendDateTime(LocalDateTime time, Appendable out) throws IOException {
+        append(encodeDateTime(time), out);
+    }
+
+    /**
+     * Writes {@code text} or, if it is null, content of buffer into {@code out}
+     */
+    private void append(String text, Appendable out) throws IOException {
+        if (text != null) {
+            out.append(text);
+        } else if (out instanceof StringBuilder) {
+            ((StringBuilder) out).append(buffer, 0, length);
+        } else if (out instanceof Writer) {
+            ((Writer) out).write(buffer, 0, length);
+        } else {
+            for (int i = 0; i < length; i++) {
+                out.append(buffer[i]);
+            }
+        }
+    }
+
+    /**
+     * @return text of {@code price}, which is not written into buffer, or null if buffer holds text of {@code price}
+     */
+    private String encodePrice(double price) {
+        if (Double.doubleToRawLongBits(price) == 0) {
+            return ZERO;
+        }
+        if (!(price >= MIN_PRICE && price < MAX_PRICE)) {
+            return Double.toString(price);
+        }
+        //the least number of decimal places, which keeps the same double; at least one as in Double.toString
+        for (int scale = 1; scale <= MAX_SCALE; scale++) {
+            long unscaled = Math.round(price * POWERS_OF_TEN[scale]);
+            if (unscaled / (double) POWERS_OF_TEN[scale] == price) {
+                length = 0;
+                appendDecimal(unscaled, scale);
+                return null;
+            }
+        }
+        return Double.toString(price);
+    }
+
+    /**
+     * @return text of {@code value}, which is not written into buffer, or null if buffer holds digits of {@code value}
+     */
+    private String encodeInteger(long value) {
+        if (value == Long.MIN_VALUE) {
+            return Long.toString(value);
+        }
+        length = 0;
+        if (value < 0) {
+            buffer[length++] = '-';
+            value = -value;
+        }
+        appendDigits(value, digits(value));
+        return null;
+    }
+
+    /**
+     * @return text of {@code time}, which is not written into buffer, or null if buffer holds text of {@code time}
+     */
+    private String encodeDateTime(LocalDateTime time) {
+        LocalDate date = time.toLocalDate();
+        if (date.getYear() < 0 || date.getYear() > 9999) {
+            return time.toString();
+        }
+        LocalTime localTime = time.toLocalTime();
+        long minute = date.toEpochDay() * 1440 + localTime.getHour() * 60 + localTime.getMinute();
+        if (minute != cachedMinute) {
+            length = 0;
+            appendPadded(date.getYear(), 4);
+            buffer[length++] = '-';
+            appendPadded(date.getMonthValue(), 2);
+            buffer[length++] = '-';
+            appendPadded(date.getDayOfMonth(), 2);
+            buffer[length++] = 'T';
+            appendPadded(localTime.getHour(), 2);
+            buffer[length++] = ':';
+            appendPadded(localTime.getMinute(), 2);
+            System.arraycopy(buffer, 0, minutePrefix, 0, MINUTE_LENGTH);
+            cachedMinute = minute;
+        }
+        System.arraycopy(minutePrefix, 0, buffer, 0, MINUTE_LENGTH);
+        length = MINUTE_LENGTH;
+        int second = localTime.getSecond();
+        int nano = localTime.getNano();
+        //seconds and fraction are omitted when they are zero; fraction has 3, 6 or 9 digits
+        if (second > 0 || nano > 0) {
+            buffer[length++] = ':';
+            appendPadded(second, 2);
+            if (nano > 0) {
+                buffer[length++] = '.';
+                if (nano % 1_000_000 == 0) {
+                    appendPadded(nano / 1_000_000, 3);
+                } else if (nano % 1000 == 0) {
+                    appendPadded(nano / 1000, 6);
+                } else {
+                    appendPadded(nano, 9);
+                }
+            }
+        }
+        return null;
+    }
+
+    private void appendDecimal(long unscaled, int scale) {
+        long integer = unscaled / POWERS_OF_TEN[scale];
+        appendDigits(integer, digits(integer));
+        buffer[length++] = '.';
+        appendPadded(unscaled - integer * POWERS_OF_TEN[scale], scale);
+    }
+
+    /**
+     * Writes {@code value} with leading zeros up to {@code width} digits
+     */
+    private void appendPadded(long value, int width) {
+        appendDigits(value, Math.max(width, digits(value)));
+    }
+
+    /**
+     * Writes last {@code count} digits of non-negative {@code value}
+     */
+    private void appendDigits(long value, int count) {
+        for (int i = length + count - 1; i >= length; i--) {
+            buffer[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+        length += count;
+    }
+
+    private static int digits(long value) {
+        int digits = 1;
+        while (digits < POWERS_OF_TEN.length && value >= POWERS_OF_TEN[digits]) {
+            digits++;
+        }
+        return digits;
+    }
+}
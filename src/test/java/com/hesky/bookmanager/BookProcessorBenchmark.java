@@ -0,0 +1,62 @@
+package com.hesky.bookmanager;
+
+import com.hesky.bookmanager.controller.InputData;
+import com.hesky.bookmanager.model.Delta;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import quickfix.FieldNotFound;
+import quickfix.Message;
+
+import java.io.File;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time and allocation of book management per FIX message. Messages of test log are parsed once and replayed in a loop;
+ * allocated bytes per message are reported by GC profiler as gc.alloc.rate.norm.
+ * Run {@link #main(String[])} from test classpath
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BookProcessorBenchmark {
+    @Param({"2", "20"})
+    private int depth;
+
+    private List<Message> messages;
+    private BookProcessor processor;
+    private int next;
+
+    @Setup
+    public void setUp() throws Exception {
+        File log = new File(Objects.requireNonNull(getClass().getClassLoader().getResource("data.summary")).getFile());
+        InputData data = new InputData(log.toPath(), null, "EUR/USD", depth, LocalDateTime.of(2015, 3, 3, 0, 0), LocalDateTime.of(2015, 3, 3, 23, 59));
+        messages = new BookManager(data).parseLogs();
+        processor = new BookProcessor(data.getSymbol(), depth, null);
+    }
+
+    /**
+     * Log starts with market data request and ends with unsubscribe, so each replay starts from empty book
+     */
+    @Benchmark
+    public Delta process() throws FieldNotFound {
+        Message message = messages.get(next);
+        next = next + 1 == messages.size() ? 0 : next + 1;
+        return processor.process(message);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(BookProcessorBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
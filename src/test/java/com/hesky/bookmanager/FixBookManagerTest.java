@@ -1,24 +1,62 @@
 package com.hesky.bookmanager;
 
+import com.hesky.bookmanager.analytics.LatencyAnalytics;
+import com.hesky.bookmanager.analytics.LatencyHistogram;
+import com.hesky.bookmanager.analytics.MarketStats;
 import com.hesky.bookmanager.controller.InputData;
+import com.hesky.bookmanager.export.ColumnarDeltaReader;
 import com.hesky.bookmanager.model.Action;
 import com.hesky.bookmanager.model.Book;
+import com.hesky.bookmanager.model.BookMode;
 import com.hesky.bookmanager.model.Delta;
 import com.hesky.bookmanager.model.Order;
+import com.hesky.bookmanager.model.PriceLevel;
+import com.hesky.bookmanager.model.SnapshotJournal;
+import com.hesky.bookmanager.server.PageCache;
+import com.hesky.bookmanager.server.ReportServer;
 import com.hesky.bookmanager.util.BookManagerUtil;
+import com.hesky.bookmanager.util.Checkpoint;
+import com.hesky.bookmanager.util.DeltaCodec;
 import com.hesky.bookmanager.util.FixParser;
+import com.hesky.bookmanager.util.LinePrefilter;
+import com.hesky.bookmanager.util.LogPrefix;
+import com.hesky.bookmanager.util.MemoryBudget;
+import com.hesky.bookmanager.util.MergedLogReader;
+import com.hesky.bookmanager.util.ParseCache;
+import com.hesky.bookmanager.util.SequenceTracker;
+import com.hesky.bookmanager.util.SpillList;
+import com.hesky.bookmanager.util.ValueEncoder;
 import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import quickfix.FieldNotFound;
+import quickfix.Group;
 import quickfix.Message;
 import quickfix.StringField;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
 
 import static com.hesky.bookmanager.model.Side.ASK;
 import static com.hesky.bookmanager.model.Side.BID;
@@ -27,6 +65,49 @@ import static com.hesky.bookmanager.util.BookManagerUtil.isNew;
 public class FixBookManagerTest {
     private InputData data = new InputData(new File(Objects.requireNonNull(getClass().getClassLoader().getResource("data.summary")).getFile()).toPath(), Paths.get("report.html"), "EUR/USD", 2, LocalDateTime.of(2015, 3, 3, 0, 0), LocalDateTime.of(2015, 3, 3, 23, 59));
     private BookManager bookManager = new BookManager(data);
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Before
+    public void setUp() {
+        //tests do not share cache files, cache is enabled only where it is tested
+        data.setParseCacheDir(null);
+    }
+
+    /**
+     * Builds report of fixture log in temporary folder
+     *
+     * @param configure changes input data before building
+     * @return bytes of report
+     */
+    private byte[] buildReport(Consumer<InputData> configure) throws Exception {
+        return buildReport(data.getLogFile(), ".html", data.getDepth(), configure);
+    }
+
+    /**
+     * Builds report in temporary folder
+     *
+     * @param logFile   log file
+     * @param suffix    suffix of report file, report is compressed with .gz suffix
+     * @param depth     depth of book
+     * @param configure changes input data before building
+     * @return bytes of report
+     */
+    private byte[] buildReport(Path logFile, String suffix, int depth, Consumer<InputData> configure) throws Exception {
+        InputData reportData = inputData(logFile, Files.createTempFile(folder.getRoot().toPath(), "report", suffix), depth);
+        configure.accept(reportData);
+        new BookManager(reportData).buildReport();
+        return Files.readAllBytes(reportData.getReportFile());
+    }
+
+    /**
+     * @return input data of fixture symbol and time bounds without parse cache
+     */
+    private InputData inputData(Path logFile, Path reportFile, int depth) {
+        InputData result = new InputData(logFile, reportFile, data.getSymbol(), depth, data.getStartTime(), data.getEndTime());
+        result.setParseCacheDir(null);
+        return result;
+    }
 
     @Test
     public void testParse() {
@@ -49,6 +130,575 @@ public class FixBookManagerTest {
         }).count(), 6);
     }
 
+    @Test
+    public void testResumeBuildReport() throws Exception {
+        byte[] expectedReport = buildReport(expectedData -> expectedData.setCheckpointInterval(0));
+
+        InputData resumedData = inputData(data.getLogFile(), folder.newFile("resumed.html").toPath(), data.getDepth());
+        resumedData.setCheckpointInterval(20);
+        BookManager manager = new BookManager(resumedData);
+        manager.addListener(cancelAfter(manager, 50));
+        try {
+            manager.buildReport();
+            Assert.fail("Building should be cancelled");
+        }
+        catch (CancellationException expected) {
+        }
+        Assert.assertTrue(Files.exists(resumedData.getCheckpointFile()));
+        manager.buildReport();
+        Assert.assertFalse(Files.exists(resumedData.getCheckpointFile()));
+        Assert.assertArrayEquals(expectedReport, Files.readAllBytes(resumedData.getReportFile()));
+    }
+
+    /**
+     * @return stage, which cancels building of {@code manager} after {@code count} deltas
+     */
+    private static DeltaListener cancelAfter(BookManager manager, int count) {
+        int[] deltas = {0};
+        return delta -> {
+            if (++deltas[0] == count) {
+                manager.cancel();
+            }
+        };
+    }
+
+    @Test
+    public void testParallelRendering() throws Exception {
+        byte[] expected = buildReport(data.getLogFile(), ".html", 5, expectedData -> expectedData.setRenderThreads(1));
+        Assert.assertArrayEquals(expected, buildReport(data.getLogFile(), ".html", 5, parallelData -> {
+            parallelData.setRenderThreads(4);
+            parallelData.setCheckpointInterval(100);
+        }));
+
+        //snapshots of deltas are rebuilt from journal by rendering threads
+        InputData parallelData = inputData(data.getLogFile(), folder.newFile("parallel.html").toPath(), 5);
+        parallelData.setRenderThreads(4);
+        BookManager manager = new BookManager(parallelData);
+        manager.createAndWriteReport(manager.manageBook(manager.parseLogs()));
+        Assert.assertArrayEquals(expected, Files.readAllBytes(parallelData.getReportFile()));
+    }
+
+    @Test
+    public void testCompressedReport() throws Exception {
+        byte[] expected = buildReport(expectedData -> expectedData.setRenderThreads(1));
+
+        //compressed on processing thread with member per checkpoint and by rendering threads with member per batch
+        for (int threads : new int[]{1, 4}) {
+            byte[] compressed = buildReport(data.getLogFile(), ".html.gz", data.getDepth(), compressedData -> {
+                compressedData.setRenderThreads(threads);
+                compressedData.setCheckpointInterval(100);
+            });
+            Assert.assertTrue(compressed.length < expected.length / 4);
+            try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+                ByteArrayOutputStream actual = new ByteArrayOutputStream();
+                byte[] buffer = new byte[8192];
+                for (int length; (length = in.read(buffer)) > 0; ) {
+                    actual.write(buffer, 0, length);
+                }
+                Assert.assertArrayEquals(expected, actual.toByteArray());
+            }
+        }
+    }
+
+    @Test
+    public void testReportServer() throws Exception {
+        List<Delta> managed = bookManager.manageBook(bookManager.parseLogs());
+        MemoryBudget budget = new MemoryBudget(Long.MAX_VALUE);
+        SpillList<Delta> deltas = new SpillList<>(new DeltaCodec(managed.get(0).getJournal()), budget);
+        deltas.addAll(managed);
+        try (ReportServer server = new ReportServer(data, deltas, 0, 10, new PageCache(1 << 20))) {
+            server.start();
+            String base = "http://localhost:" + server.getPort() + "/";
+            String firstPage = httpGet(base);
+            Assert.assertTrue(firstPage.contains("records 1-10 of " + deltas.size()));
+            Assert.assertEquals(1, server.getCache().size());
+            Assert.assertEquals(firstPage, httpGet(base + "?page=0"));
+            Assert.assertEquals(1, server.getCache().size());
+
+            //sequence number is redirected to page of its first record
+            Delta delta = deltas.get(25);
+            int index = 0;
+            while (!deltas.get(index).getNumber().equals(delta.getNumber())) {
+                index++;
+            }
+            Assert.assertEquals(httpGet(base + "?page=" + index / 10), httpGet(base + "?sequence=" + delta.getNumber()));
+
+            String time = delta.getEndDateTime().toString();
+            Assert.assertTrue(httpGet(base + "?from=" + time + "&to=" + time).contains("<h1>" + delta.getNumber() + "</h1>"));
+            Assert.assertTrue(httpGet(base + "?from=" + data.getEndTime()).contains("no records of " + deltas.size()));
+
+            HttpURLConnection connection = (HttpURLConnection) new URL(base + "?page=x").openConnection();
+            Assert.assertEquals(400, connection.getResponseCode());
+            connection = (HttpURLConnection) new URL(base + "?page=" + deltas.size()).openConnection();
+            Assert.assertEquals(404, connection.getResponseCode());
+        }
+        //deltas are closed with server
+        Assert.assertEquals(0, budget.getUsedBytes());
+        Assert.assertTrue(deltas.isEmpty());
+    }
+
+    @Test
+    public void testPageCache() {
+        PageCache cache = new PageCache(100);
+        cache.put("a", new byte[40]);
+        cache.put("b", new byte[40]);
+        Assert.assertNotNull(cache.get("a"));
+        //the least recently used page is evicted
+        cache.put("c", new byte[40]);
+        Assert.assertNull(cache.get("b"));
+        Assert.assertNotNull(cache.get("a"));
+        Assert.assertEquals(80, cache.getBytes());
+        cache.put("d", new byte[101]);
+        Assert.assertNull(cache.get("d"));
+        Assert.assertEquals(2, cache.size());
+    }
+
+    private static String httpGet(String url) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        Assert.assertEquals(200, connection.getResponseCode());
+        try (InputStream in = connection.getInputStream()) {
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            for (int length; (length = in.read(buffer)) > 0; ) {
+                body.write(buffer, 0, length);
+            }
+            return new String(body.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    @Test
+    public void testParseCache() throws Exception {
+        Path cacheDir = folder.newFolder("parse-cache").toPath();
+        InputData cachedData = inputData(data.getLogFile(), data.getReportFile(), data.getDepth());
+        cachedData.setParseCacheDir(cacheDir);
+        List<String> parsed = cachedFields(new BookManager(cachedData).parseLogs());
+        String key = ParseCache.key(data.getLogFile(), data.getSymbol());
+        Path cacheFile = cacheDir.resolve(key + ".events");
+        Assert.assertTrue(Files.exists(cacheFile));
+        List<String> cached = cachedFields(new BookManager(cachedData).parseLogs());
+        Assert.assertEquals(parsed, cached);
+
+        //counts of sequence numbers are cached with messages
+        Path resentLog = writeResentLog();
+        InputData resentData = inputData(resentLog, data.getReportFile(), data.getDepth());
+        resentData.setParseCacheDir(cacheDir);
+        new BookManager(resentData).parseLogs();
+        String resentKey = ParseCache.key(resentLog, data.getSymbol());
+        try (ParseCache.Reader reader = new ParseCache(cacheDir, resentData.getParseCacheBytes()).read(resentKey)) {
+            long duplicates = Files.readAllLines(resentLog, StandardCharsets.UTF_8).size() - Files.readAllLines(data.getLogFile(), StandardCharsets.UTF_8).size();
+            Assert.assertEquals(duplicates, reader.getDuplicates());
+            Assert.assertEquals(0, reader.getGaps());
+        }
+        Files.delete(cacheDir.resolve(resentKey + ".events"));
+
+        //other time bounds are filtered from the same cache file
+        InputData noWarmUp = new InputData(data.getLogFile(), data.getReportFile(), data.getSymbol(), data.getDepth(), LocalDateTime.of(2015, 3, 3, 23, 30), data.getEndTime());
+        noWarmUp.setWarmUp(false);
+        noWarmUp.setParseCacheDir(null);
+        List<String> expected = cachedFields(new BookManager(noWarmUp).parseLogs());
+        noWarmUp.setParseCacheDir(cacheDir);
+        Assert.assertEquals(expected, cachedFields(new BookManager(noWarmUp).parseLogs()));
+        Assert.assertTrue(expected.size() < parsed.size());
+
+        //record, which cannot be decoded, is skipped; entries count of the first record is after magic, version, key, length, times, type, sequence number and subscription type
+        byte[] bytes = Files.readAllBytes(cacheFile);
+        int countOffset = Integer.BYTES + 1 + Short.BYTES + key.length() + Integer.BYTES + 2 * (Long.BYTES + Integer.BYTES) + 1 + 2 * Integer.BYTES;
+        bytes[countOffset] = 0x7F;
+        Files.write(cacheFile, bytes);
+        Assert.assertEquals(parsed.subList(1, parsed.size()), cachedFields(new BookManager(cachedData).parseLogs()));
+
+        //the least recently used file is evicted under disk budget
+        Path other = cacheDir.resolve("other.events");
+        Files.write(other, new byte[16]);
+        Files.setLastModifiedTime(other, FileTime.fromMillis(0));
+        cachedData.setParseCacheBytes(Files.size(cacheFile));
+        Files.delete(cacheFile);
+        new BookManager(cachedData).parseLogs();
+        Assert.assertFalse(Files.exists(other));
+        Assert.assertTrue(Files.exists(cacheFile));
+    }
+
+    /**
+     * @return fields of messages, which are kept in parse cache
+     */
+    private static List<String> cachedFields(List<Message> messages) throws FieldNotFound {
+        List<String> result = new ArrayList<>();
+        for (Message message : messages) {
+            StringBuilder fields = new StringBuilder();
+            fields.append(message.getHeader().getString(35)).append('|').append(message.getHeader().getInt(34))
+                    .append('|').append(message.getHeader().getUtcTimeStamp(52)).append('|').append(message.isSetField(263) ? message.getInt(263) : -1);
+            for (Group group : message.getGroups(268)) {
+                fields.append('|').append(group.isSetField(279) ? group.getString(279) : "").append(',').append(group.isSetField(269) ? group.getString(269) : "")
+                        .append(',').append(group.isSetField(278) ? BookManagerUtil.readLong(group, 278) : "").append(',').append(group.isSetField(270) ? group.getDouble(270) : "")
+                        .append(',').append(group.isSetField(271) ? BookManagerUtil.readLong(group, 271) : "");
+            }
+            result.add(fields.toString());
+        }
+        return result;
+    }
+
+    @Test
+    public void testBuildReportFromParseCache() throws Exception {
+        Path cacheDir = folder.newFolder("report-cache").toPath();
+        byte[] expected = buildReport(expectedData -> expectedData.setCheckpointInterval(0));
+        //the first building writes cache, the second one reads it
+        Assert.assertArrayEquals(expected, buildReport(cachedData -> cachedData.setParseCacheDir(cacheDir)));
+        Path cacheFile = cacheDir.resolve(ParseCache.key(data.getLogFile(), data.getSymbol()) + ".events");
+        Assert.assertTrue(Files.exists(cacheFile));
+        Files.setLastModifiedTime(cacheFile, FileTime.fromMillis(0));
+        Assert.assertArrayEquals(expected, buildReport(cachedData -> cachedData.setParseCacheDir(cacheDir)));
+        Assert.assertTrue(Files.getLastModifiedTime(cacheFile).toMillis() > 0);
+
+        //cache is reused for other depth and mode
+        Consumer<InputData> levels = levelsData -> levelsData.setBookMode(BookMode.LEVELS);
+        Assert.assertArrayEquals(buildReport(data.getLogFile(), ".html", 5, levels),
+                buildReport(data.getLogFile(), ".html", 5, levels.andThen(cachedData -> cachedData.setParseCacheDir(cacheDir))));
+    }
+
+    @Test
+    public void testMemoryBudget() throws Exception {
+        Path expectedReport = folder.newFile("expected.html").toPath();
+        Path spilledReport = folder.newFile("spilled.html").toPath();
+        InputData expectedData = inputData(data.getLogFile(), expectedReport, data.getDepth());
+        BookManager expectedManager = new BookManager(expectedData);
+        List<Message> expectedMessages = expectedManager.parseLogs();
+        expectedManager.createAndWriteReport(expectedManager.manageBook(expectedMessages));
+
+        //all messages are spilled with empty budget, otherwise messages are spilled in the middle of the run
+        for (long budget : new long[]{0, 300_000}) {
+            InputData spilledData = inputData(data.getLogFile(), spilledReport, data.getDepth());
+            spilledData.setMemoryBudget(budget);
+            BookManager manager = new BookManager(spilledData);
+            try (SpillList<Message> messages = manager.parseLogs()) {
+                Assert.assertTrue(messages.getSpilled() > 0 && (budget == 0 ? messages.getSpilled() == messages.size() : messages.getSpilled() < messages.size()));
+                Assert.assertEquals(expectedMessages.stream().map(Message::toString).collect(Collectors.toList()),
+                        messages.stream().map(Message::toString).collect(Collectors.toList()));
+                SpillList<Delta> deltas = manager.manageBook(messages);
+                Assert.assertEquals(deltas.size(), deltas.getSpilled());
+                manager.createAndWriteReport(deltas);
+                deltas.close();
+            }
+            Assert.assertArrayEquals(Files.readAllBytes(expectedReport), Files.readAllBytes(spilledReport));
+        }
+    }
+
+    @Test
+    public void testSequenceTracker() {
+        SequenceTracker tracker = new SequenceTracker(64);
+        //inbound and outbound sessions have the same sequence numbers
+        Assert.assertTrue(acceptLine(tracker, "77MARKETS", "1001083", 1, false));
+        Assert.assertTrue(acceptLine(tracker, "1001083", "77MARKETS", 1, false));
+        Assert.assertTrue(acceptLine(tracker, "77MARKETS", "1001083", 2, false));
+        Assert.assertFalse(acceptLine(tracker, "77MARKETS", "1001083", 2, true));
+        Assert.assertEquals(1, tracker.getDuplicates());
+        //gap is filled by message, which arrives out of order
+        Assert.assertTrue(acceptLine(tracker, "77MARKETS", "1001083", 5, false));
+        Assert.assertEquals(1, tracker.getGaps());
+        Assert.assertEquals(2, tracker.getMissing());
+        Assert.assertTrue(acceptLine(tracker, "77MARKETS", "1001083", 3, true));
+        Assert.assertFalse(acceptLine(tracker, "77MARKETS", "1001083", 3, true));
+        Assert.assertEquals(1, tracker.getMissing());
+        //numbers out of window are duplicates only with PossDup flag, otherwise sequence is restarted
+        Assert.assertTrue(acceptLine(tracker, "77MARKETS", "1001083", 200, false));
+        Assert.assertFalse(acceptLine(tracker, "77MARKETS", "1001083", 4, true));
+        Assert.assertTrue(acceptLine(tracker, "77MARKETS", "1001083", 1, false));
+        Assert.assertTrue(acceptLine(tracker, "77MARKETS", "1001083", 2, false));
+        Assert.assertEquals(2, tracker.getGaps());
+        Assert.assertEquals(3, tracker.getDuplicates());
+        Assert.assertEquals(1, tracker.getRestarts());
+        Assert.assertTrue(tracker.accept(new byte[]{'a', 'b'}, 0, 2));
+    }
+
+    private static boolean acceptLine(SequenceTracker tracker, String sender, String target, int sequence, boolean isPossDup) {
+        byte[] line = ("1:I:N 20150303-22:10:03.022 : 8=FIX.4.4\u00019=86\u000135=0\u000134=" + sequence + (isPossDup ? "\u000143=Y" : "")
+                + "\u000149=" + sender + "\u000152=20150303-22:10:02.978\u000156=" + target + "\u000110=038\u0001 139").getBytes(StandardCharsets.UTF_8);
+        return tracker.accept(line, 0, line.length);
+    }
+
+    /**
+     * @return copy of fixture log, where each market data message is followed by its possible duplicate
+     */
+    private Path writeResentLog() throws IOException {
+        Path resentLog = Files.createTempFile(folder.getRoot().toPath(), "resent", ".summary");
+        List<String> lines = new ArrayList<>();
+        for (String line : Files.readAllLines(data.getLogFile(), StandardCharsets.UTF_8)) {
+            lines.add(line);
+            if (line.contains("\u000135=X\u0001")) {
+                lines.add(line.replaceFirst("\u000134=(\\d+)\u0001", "\u000134=$1\u000143=Y\u0001"));
+            }
+        }
+        Files.write(resentLog, lines, StandardCharsets.UTF_8);
+        return resentLog;
+    }
+
+    @Test
+    public void testDuplicateMessages() throws Exception {
+        Path resentLog = writeResentLog();
+        InputData expectedData = inputData(data.getLogFile(), data.getReportFile(), data.getDepth());
+        InputData resentData = inputData(resentLog, data.getReportFile(), data.getDepth());
+        Assert.assertEquals(new BookManager(expectedData).parseLogs().stream().map(Message::toString).collect(Collectors.toList()),
+                new BookManager(resentData).parseLogs().stream().map(m -> m.toString().replaceFirst("\u000143=Y", "")).collect(Collectors.toList()));
+
+        byte[] expected = buildReport(expectedReportData -> expectedReportData.setCheckpointInterval(0));
+        byte[] resent = buildReport(resentLog, ".html", data.getDepth(), resentReportData -> resentReportData.setCheckpointInterval(0));
+        //reports differ only by log file
+        Assert.assertEquals(new String(expected, StandardCharsets.UTF_8),
+                new String(resent, StandardCharsets.UTF_8).replace(resentLog.toAbsolutePath().toString(), data.getLogFile().toAbsolutePath().toString()));
+    }
+
+    @Test
+    public void testMergedLogs() throws Exception {
+        Path logDir = folder.newFolder("logs").toPath();
+        //outbound session and rotated halves of inbound session
+        List<String> lines = Files.readAllLines(data.getLogFile(), StandardCharsets.UTF_8);
+        List<String> inbound = lines.stream().filter(line -> line.contains(":I:")).collect(Collectors.toList());
+        Path outboundFile = Files.write(logDir.resolve("fix-out.summary"), lines.stream().filter(line -> !line.contains(":I:")).collect(Collectors.toList()), StandardCharsets.UTF_8);
+        Path firstFile = Files.write(logDir.resolve("fix-in-1.summary"), inbound.subList(0, inbound.size() / 2), StandardCharsets.UTF_8);
+        Path secondFile = Files.write(logDir.resolve("fix-in-2.summary"), inbound.subList(inbound.size() / 2, inbound.size()), StandardCharsets.UTF_8);
+
+        InputData expectedData = inputData(data.getLogFile(), data.getReportFile(), data.getDepth());
+        List<String> expected = new BookManager(expectedData).parseLogs().stream().map(Message::toString).collect(Collectors.toList());
+        InputData globData = inputData(logDir.resolve("fix-*.summary"), data.getReportFile(), data.getDepth());
+        Assert.assertEquals(Arrays.asList(firstFile, secondFile, outboundFile), globData.getLogFiles());
+        Assert.assertEquals(expected, new BookManager(globData).parseLogs().stream().map(Message::toString).collect(Collectors.toList()));
+        InputData listData = inputData(outboundFile, data.getReportFile(), data.getDepth());
+        listData.setLogFiles(Arrays.asList(secondFile, outboundFile, firstFile));
+        Assert.assertEquals(expected, new BookManager(listData).parseLogs().stream().map(Message::toString).collect(Collectors.toList()));
+
+        //merged lines are read again from offsets of each file after returned lines
+        List<String> merged = new ArrayList<>();
+        long[] offsets = null;
+        long position = 0;
+        try (MergedLogReader reader = new MergedLogReader(globData.getLogFiles())) {
+            while (reader.next()) {
+                merged.add(reader.getFixMessage());
+                if (merged.size() == 1000) {
+                    offsets = reader.offsets();
+                    position = reader.nextOffset();
+                }
+            }
+        }
+        Assert.assertEquals(lines.size(), merged.size());
+        Assert.assertEquals(position, Arrays.stream(offsets).sum());
+        try (MergedLogReader reader = new MergedLogReader(globData.getLogFiles(), offsets)) {
+            Assert.assertEquals(position, reader.nextOffset());
+            for (String message : merged.subList(1000, merged.size())) {
+                Assert.assertTrue(reader.next());
+                Assert.assertEquals(message, reader.getFixMessage());
+            }
+            Assert.assertFalse(reader.next());
+        }
+
+        //report building of merged files is resumed from checkpoint
+        byte[] expectedReport = buildReport(logDir.resolve("fix-*.summary"), ".html", data.getDepth(), mergedData -> mergedData.setCheckpointInterval(0));
+        InputData resumedData = inputData(logDir.resolve("fix-*.summary"), folder.newFile("resumed.html").toPath(), data.getDepth());
+        resumedData.setCheckpointInterval(20);
+        BookManager manager = new BookManager(resumedData);
+        manager.addListener(cancelAfter(manager, 50));
+        try {
+            manager.buildReport();
+            Assert.fail("Building should be cancelled");
+        }
+        catch (CancellationException cancelled) {
+        }
+        manager.buildReport();
+        Assert.assertArrayEquals(expectedReport, Files.readAllBytes(resumedData.getReportFile()));
+    }
+
+    @Test
+    public void testCheckpoint() throws Exception {
+        //key contains paths of all log files and may be longer than 64KB
+        char[] chars = new char[100_000];
+        Arrays.fill(chars, 'k');
+        String key = new String(chars);
+        Book book = new Book("EUR/USD");
+        book.add(new Order(1L, BID, 1.1, 100L));
+        Path file = folder.newFile("report.checkpoint").toPath();
+        new Checkpoint(key, new long[]{10, 20}, 30, null, true, book).write(file);
+        Checkpoint checkpoint = Checkpoint.read(file, key);
+        Assert.assertArrayEquals(new long[]{10, 20}, checkpoint.getLogOffsets());
+        Assert.assertEquals(30, checkpoint.getReportLength());
+        Assert.assertEquals(book, checkpoint.getBook());
+        Assert.assertNull(Checkpoint.read(file, "other"));
+    }
+
+    @Test
+    public void testLogPrefix() {
+        LogPrefix prefix = new LogPrefix();
+        byte[] line = "130:I:N 20150303-23:14:25.484 : 8=FIX.4.4\u000135=X\u0001".getBytes(StandardCharsets.UTF_8);
+        Assert.assertTrue(prefix.parse(line, 0, line.length));
+        Assert.assertEquals(130, prefix.getSequence());
+        Assert.assertEquals(LogPrefix.INBOUND, prefix.getDirection());
+        Assert.assertEquals(LocalDateTime.of(2015, 3, 3, 23, 14, 25, 484_000_000), prefix.getDateTime());
+        byte[] invalid = "8=FIX.4.4\u000135=X\u0001".getBytes(StandardCharsets.UTF_8);
+        Assert.assertFalse(prefix.parse(invalid, 0, invalid.length));
+        Assert.assertNull(prefix.getDateTime());
+    }
+
+    @Test
+    public void testDirectionFilter() throws Exception {
+        Path echoedLog = folder.newFile("echoed.summary").toPath();
+        //each market data message and request is echoed in opposite direction
+        List<String> lines = new ArrayList<>();
+        for (String line : Files.readAllLines(data.getLogFile(), StandardCharsets.UTF_8)) {
+            lines.add(line);
+            if (line.contains("\u000135=X\u0001")) {
+                lines.add(line.replaceFirst(":I:", ":O:"));
+            } else if (line.contains("\u000135=V\u0001")) {
+                lines.add(line.replaceFirst(":O:", ":I:"));
+            }
+        }
+        Files.write(echoedLog, lines, StandardCharsets.UTF_8);
+        InputData expectedData = inputData(data.getLogFile(), data.getReportFile(), data.getDepth());
+        List<String> expected = new BookManager(expectedData).parseLogs().stream().map(Message::toString).collect(Collectors.toList());
+        InputData echoedData = inputData(echoedLog, data.getReportFile(), data.getDepth());
+        Assert.assertEquals(expected, new BookManager(echoedData).parseLogs().stream().map(Message::toString).collect(Collectors.toList()));
+        echoedData.setSession("77MARKETS");
+        Assert.assertEquals(expected, new BookManager(echoedData).parseLogs().stream().map(Message::toString).collect(Collectors.toList()));
+        echoedData.setSession("OTHER");
+        Assert.assertTrue(new BookManager(echoedData).parseLogs().isEmpty());
+
+        //echoes in opposite direction are other sessions of sequence numbers
+        SequenceTracker tracker = new SequenceTracker();
+        try (MergedLogReader reader = new MergedLogReader(Collections.singletonList(echoedLog))) {
+            while (reader.next()) {
+                tracker.accept(reader.prefix().getDirection(), reader.buffer(), reader.start(), reader.end());
+            }
+        }
+        Assert.assertEquals(0, tracker.getRestarts());
+        Assert.assertEquals(0, tracker.getDuplicates());
+    }
+
+    @Test
+    public void testGetBookAt() throws Exception {
+        List<Delta> deltas = bookManager.manageBook(bookManager.parseLogs());
+        Set<Integer> numbers = new HashSet<>();
+        for (Delta delta : deltas) {
+            if (numbers.add(delta.getNumber())) {
+                Assert.assertEquals(delta.getBook(), bookManager.getBookAt(delta.getNumber()));
+            }
+        }
+        Delta last = deltas.get(deltas.size() - 1);
+        Assert.assertEquals(last.getBook(), bookManager.getBookAt(last.getEndDateTime()));
+        //book is reset by the last market data request (unsubscribe)
+        Assert.assertTrue(bookManager.getBookAt(data.getEndTime()).getAllOrders().isEmpty());
+        Assert.assertTrue(bookManager.getBookAt(data.getStartTime()).getAllOrders().isEmpty());
+    }
+
+    @Test
+    public void testLatencyHistogram() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long value = 1; value <= 100_000; value++) {
+            histogram.record(value);
+        }
+        Assert.assertEquals(100_000, histogram.getCount());
+        Assert.assertEquals(1, histogram.getMin());
+        Assert.assertEquals(100_000, histogram.getMax());
+        Assert.assertEquals(50_000, histogram.getValueAtPercentile(50), 50_000 / 64);
+        Assert.assertEquals(99_000, histogram.getValueAtPercentile(99), 99_000 / 64);
+        Assert.assertEquals(100_000, histogram.getValueAtPercentile(100));
+        histogram.reset();
+        histogram.record(100);
+        Assert.assertEquals(100, histogram.getValueAtPercentile(50));
+    }
+
+    @Test
+    public void testLatencyAnalytics() throws Exception {
+        Path report = folder.newFile("latency.html").toPath();
+        InputData latencyData = inputData(data.getLogFile(), report, data.getDepth());
+        latencyData.setLatencyAnalytics(true);
+        new BookManager(latencyData).buildReport();
+        List<String> lines = Files.readAllLines(latencyData.getLatencyFile());
+        String total = lines.get(lines.size() - 1);
+        int deltas = bookManager.manageBook(bookManager.parseLogs()).size();
+        Assert.assertTrue(total.startsWith("EUR/USD,TOTAL," + deltas + ","));
+        //each delta of report building has time of its log line
+        Assert.assertEquals(String.valueOf(deltas), total.split(",")[10]);
+
+        LatencyAnalytics analytics = new LatencyAnalytics(folder.newFile("log.csv").toPath());
+        BookManager manager = new BookManager(inputData(data.getLogFile(), folder.newFile("log.html").toPath(), data.getDepth()));
+        List<Delta> logged = new ArrayList<>();
+        manager.addListener(logged::add);
+        manager.addListener(analytics);
+        manager.buildReport();
+        Assert.assertEquals(LocalDateTime.of(2015, 3, 3, 23, 14, 25, 484_000_000), logged.get(0).getLogDateTime());
+        for (Delta delta : logged) {
+            Assert.assertFalse(delta.getLogDateTime().isBefore(delta.getEndDateTime()));
+        }
+        Assert.assertEquals(deltas, analytics.getTotalLog("EUR/USD").getCount());
+    }
+
+    @Test
+    public void testMarketStats() throws Exception {
+        Path report = folder.newFile("stats.html").toPath();
+        InputData statsData = inputData(data.getLogFile(), report, data.getDepth());
+        statsData.setMarketStats(true);
+        statsData.setStatsInterval(Duration.ofMinutes(1));
+        new BookManager(statsData).buildReport();
+        List<String> rows = Files.readAllLines(statsData.getStatsFile());
+        long updates = rows.stream().skip(1).mapToLong(row -> Long.parseLong(row.split(",")[1])).sum();
+        Assert.assertEquals(bookManager.manageBook(bookManager.parseLogs()).size(), updates);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMarketStatsInterval() throws Exception {
+        //bucket shorter than one millisecond is rejected before output file is created
+        new MarketStats(Paths.get("stats.csv"), Duration.ofNanos(500));
+    }
+
+    @Test
+    public void testExport() throws Exception {
+        Path report = folder.newFile("export.html").toPath();
+        InputData exportData = inputData(data.getLogFile(), report, data.getDepth());
+        exportData.setCsvExport(true);
+        exportData.setColumnarExport(true);
+        new BookManager(exportData).buildReport();
+        List<String> csv = Files.readAllLines(exportData.getCsvFile());
+        int row = 1;
+        try (ColumnarDeltaReader reader = new ColumnarDeltaReader(exportData.getColumnarFile())) {
+            while (reader.nextBlock()) {
+                for (int i = 0; i < reader.getRows(); i++, row++) {
+                    String[] columns = csv.get(row).split(",", -1);
+                    Assert.assertEquals(Integer.parseInt(columns[0]), reader.getNumbers()[i]);
+                    Assert.assertEquals(Long.parseLong(columns[1]), reader.getTimes()[i]);
+                    Assert.assertEquals(columns[2], reader.getKinds()[i].name());
+                    Assert.assertEquals(columns[3], reader.getActions()[i] == null ? "" : reader.getActions()[i].name());
+                    Assert.assertEquals(columns[4], reader.getSides()[i] == null ? "" : reader.getSides()[i].name());
+                    Assert.assertEquals(Long.parseLong(columns[5]), reader.getIds()[i]);
+                    Assert.assertEquals(Double.parseDouble(columns[6]), reader.getPrices()[i], 0);
+                    Assert.assertEquals(Long.parseLong(columns[7]), reader.getSizes()[i]);
+                    Assert.assertEquals(Integer.parseInt(columns[8]), reader.getLevels()[i]);
+                }
+            }
+        }
+        Assert.assertEquals(csv.size(), row);
+
+        //outputs of stages are not checkpointed, so cancelled building is started again
+        exportData.setCheckpointInterval(20);
+        BookManager manager = new BookManager(exportData);
+        manager.addListener(cancelAfter(manager, 50));
+        try {
+            manager.buildReport();
+            Assert.fail("Building should be cancelled");
+        }
+        catch (CancellationException expected) {
+        }
+        Assert.assertFalse(Files.exists(exportData.getCheckpointFile()));
+        manager.buildReport();
+        Assert.assertEquals(csv, Files.readAllLines(exportData.getCsvFile()));
+    }
+
+    @Test
+    public void testLinePrefilter() {
+        LinePrefilter prefilter = new LinePrefilter(Arrays.asList("EUR/USD", "GBP/USD"), 'V', 'X');
+        byte[] update = "130:I:N 20150303-23:14:25.484 : 8=FIX.4.4\u00019=2177\u000135=X\u000134=130\u000155=GBP/USD\u000110=161\u0001 2234".getBytes(StandardCharsets.UTF_8);
+        byte[] heartbeat = "2:I:N 20150303-22:10:33.884 : 8=FIX.4.4\u00019=68\u000135=0\u000134=2\u000158=EUR/USD\u000110=203\u0001 121".getBytes(StandardCharsets.UTF_8);
+        byte[] otherSymbol = "130:I:N 20150303-23:14:25.484 : 8=FIX.4.4\u00019=2177\u000135=X\u000134=130\u000155=USD/JPY\u000110=161\u0001 2234".getBytes(StandardCharsets.UTF_8);
+        Assert.assertTrue(prefilter.accept(update, 0, update.length));
+        Assert.assertFalse(prefilter.accept(heartbeat, 0, heartbeat.length));
+        Assert.assertFalse(prefilter.accept(otherSymbol, 0, otherSymbol.length));
+    }
+
     @Test
     public void testManageBook() throws Exception {
         List<Message> messages = bookManager.parseLogs();
@@ -61,6 +711,244 @@ public class FixBookManagerTest {
         bookManager.createAndWriteReport(deltas);
     }
 
+    @Test
+    public void testSnapshotJournal() {
+        SnapshotJournal journal = new SnapshotJournal(4);
+        List<Book> snapshots = new ArrayList<>();
+        Book book = new Book("EUR/USD");
+        Random random = new Random(42);
+        for (long id = 0; id < 100; id++) {
+            book.add(new Order(id, random.nextBoolean() ? BID : ASK, 1.1 + random.nextInt(20) / 1000d, 1000L * random.nextInt(10)));
+            if (id % 3 == 0) {
+                book.delete(id - random.nextInt(5));
+            }
+            Book snapshot = book.getFirstLevels(3);
+            snapshots.add(snapshot);
+            Assert.assertEquals(snapshots.size() - 1, journal.append(snapshot));
+        }
+        for (int i = snapshots.size() - 1; i >= 0; i -= 7) {
+            Assert.assertEquals(snapshots.get(i), journal.get(i));
+        }
+        for (int i = 0; i < snapshots.size(); i++) {
+            Assert.assertEquals(snapshots.get(i), journal.get(i));
+        }
+    }
+
+    @Test
+    public void testUpdateSnapshot() {
+        Random random = new Random(7);
+        for (BookMode mode : BookMode.values()) {
+            for (int depth : new int[]{1, 3, InputData.FULL_BOOK}) {
+                Book book = new Book("EUR/USD");
+                Book snapshot = book.getSnapshot(depth, mode);
+                SnapshotJournal journal = new SnapshotJournal(4);
+                journal.append(snapshot.copy());
+                for (int message = 0; message < 200; message++) {
+                    Set<Double> touchedBids = new HashSet<>();
+                    Set<Double> touchedOffers = new HashSet<>();
+                    for (int entry = random.nextInt(4); entry >= 0; entry--) {
+                        long id = random.nextInt(30);
+                        Order previous = book.get(id);
+                        if (previous != null) {
+                            (previous.getSide() == BID ? touchedBids : touchedOffers).add(previous.getPrice());
+                        }
+                        if (random.nextInt(4) == 0) {
+                            book.delete(id);
+                        } else {
+                            //new or changed order, which may keep its price or move to other level or side
+                            Order order = new Order(id, random.nextBoolean() ? BID : ASK, 1.1 + random.nextInt(10) / 1000d, 1000L * (1 + random.nextInt(5)));
+                            (order.getSide() == BID ? touchedBids : touchedOffers).add(order.getPrice());
+                            book.change(order);
+                        }
+                    }
+                    Book prevSnapshot = snapshot.copy();
+                    Map<Long, Order> changes = new LinkedHashMap<>();
+                    book.updateSnapshot(snapshot, depth, mode, touchedBids, touchedOffers, changes);
+                    Assert.assertEquals(book.getSnapshot(depth, mode), snapshot);
+                    List<Delta.Entry> expected = BookManagerUtil.getSnapshotChanges(prevSnapshot, snapshot);
+                    List<Delta.Entry> actual = BookManagerUtil.getSnapshotChanges(snapshot, changes);
+                    //price levels are listed in the same order, orders with the same price may be listed in other order
+                    Assert.assertEquals(mode == BookMode.LEVELS ? expected : new HashSet<>(expected), mode == BookMode.LEVELS ? actual : new HashSet<>(actual));
+                    Assert.assertEquals(snapshot, journal.get(journal.append(snapshot, changes.keySet())));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testBookIndex() throws Exception {
+        Book book = new Book("EUR/USD");
+        book.add(new Order(1L, BID, 1.1, 100L));
+        book.add(new Order(2L, ASK, 1.2, 100L));
+        //order with the same id moves to other side
+        book.add(new Order(1L, ASK, 1.3, 50L));
+        Assert.assertTrue(book.getBids().isEmpty());
+        Assert.assertEquals(2, book.getOffers().size());
+        Assert.assertEquals(new Order(1L, ASK, 1.3, 50L), book.delete(1L));
+        Assert.assertNull(book.delete(1L));
+        //maps of book are read-only, so index and price levels cannot become stale
+        try {
+            book.getBids().put(3L, new Order(3L, BID, 1.0, 10L));
+            Assert.fail("Bids should be read-only");
+        }
+        catch (UnsupportedOperationException expected) {
+            //book is modified only by its methods
+        }
+        Assert.assertNull(book.delete(3L));
+        Assert.assertEquals(1, book.copy().getAllOrders().size());
+        //replaced order moves to its new price level
+        book.add(new Order(2L, ASK, 1.25, 70L));
+        Assert.assertEquals(1, book.getPriceLevels(ASK).size());
+        Assert.assertEquals(1.25, book.getPriceLevels(ASK).iterator().next().getPrice(), 0);
+        Assert.assertEquals(70L, book.getFirstPriceLevels(1).getOffers().values().iterator().next().getSize().longValue());
+
+        BookProcessor processor = new BookProcessor("EUR/USD", 2, null);
+        processor.process(fixMessage("35=V|34=1|52=20150303-22:10:02.873|263=1|"));
+        Delta delta = processor.process(fixMessage("35=X|34=2|52=20150303-22:10:03.873|268=1|279=2|278=77|"));
+        Assert.assertEquals(1, processor.getUnknownDeletes());
+        Assert.assertEquals(Action.DELETE, delta.getInputOrders().get(0).getAction());
+        Assert.assertTrue(delta.getBookChanges().isEmpty());
+    }
+
+    @Test
+    public void testChangeEntry() throws Exception {
+        BookProcessor processor = new BookProcessor("EUR/USD", 2, null);
+        processor.process(fixMessage("35=V|34=1|52=20150303-22:10:02.873|263=1|"));
+        processor.process(fixMessage("35=X|34=2|52=20150303-22:10:03.873|268=2|279=0|269=0|278=1|270=1.1|271=100|279=0|269=1|278=2|270=1.2|271=100|"));
+        Delta delta = processor.process(fixMessage("35=X|34=3|52=20150303-22:10:04.873|268=1|279=1|269=0|278=1|270=1.1|271=300|"));
+        Assert.assertEquals(Collections.singletonList(new Delta.Entry(new Order(1L, BID, 1.1, 300L), Action.UPDATE)), delta.getInputOrders());
+        Assert.assertEquals(Long.valueOf(300), processor.getBook().getBids().get(1L).getSize());
+        Assert.assertEquals(2, processor.getBook().getAllOrders().size());
+        Assert.assertEquals(Collections.singletonList(new Delta.Entry(new Order(1L, BID, 1.1, 300L), Action.UPDATE)), delta.getBookChanges());
+        //side and price are kept when change has only size
+        delta = processor.process(fixMessage("35=X|34=4|52=20150303-22:10:05.873|268=1|279=1|278=2|271=50|"));
+        Assert.assertEquals(new Order(2L, ASK, 1.2, 50L), processor.getBook().getOffers().get(2L));
+        Assert.assertEquals(Collections.singletonList(new Delta.Entry(new Order(2L, ASK, 1.2, 50L), Action.UPDATE)), delta.getBookChanges());
+        //fractional and exponent sizes are truncated
+        processor.process(fixMessage("35=X|34=5|52=20150303-22:10:06.873|268=1|279=1|278=2|271=75.5|"));
+        Assert.assertEquals(Long.valueOf(75), processor.getBook().getOffers().get(2L).getSize());
+        processor.process(fixMessage("35=X|34=6|52=20150303-22:10:07.873|268=1|279=1|278=2|271=1E2|"));
+        Assert.assertEquals(Long.valueOf(100), processor.getBook().getOffers().get(2L).getSize());
+        //change of size keeps place of order in queue of its level
+        processor.process(fixMessage("35=X|34=7|52=20150303-22:10:08.873|268=2|279=0|269=0|278=3|270=1.1|271=10|279=1|278=1|271=20|"));
+        Assert.assertEquals(Arrays.asList(1L, 3L), processor.getBook().getPriceLevels(BID).iterator().next().getOrders().stream().map(Order::getId).collect(Collectors.toList()));
+        Assert.assertEquals(30L, processor.getBook().getPriceLevels(BID).iterator().next().getTotalSize());
+        //partial change of unknown order is skipped like delete of unknown order
+        delta = processor.process(fixMessage("35=X|34=8|52=20150303-22:10:09.873|268=1|279=1|278=99|271=5|"));
+        Assert.assertEquals(1, processor.getUnknownChanges());
+        Assert.assertEquals(Collections.singletonList(new Delta.Entry(99L, 0.0, 5L, Action.UPDATE)), delta.getInputOrders());
+        Assert.assertNull(processor.getBook().get(99L));
+        Assert.assertTrue(delta.getBookChanges().isEmpty());
+    }
+
+    @Test
+    public void testFullRefresh() throws Exception {
+        BookProcessor processor = new BookProcessor("EUR/USD", 2, null);
+        //log starts with full refresh without market data request
+        Delta delta = processor.process(fixMessage("35=W|34=2|52=20150303-22:10:03.873|55=EUR/USD|268=2|269=0|278=1|270=1.1|271=100|269=1|278=2|270=1.2|271=100|"));
+        Assert.assertTrue(delta.isBookRefresh());
+        Assert.assertEquals(0, delta.getDifference());
+        Assert.assertEquals(2, delta.getBookChanges().size());
+        processor.process(fixMessage("35=X|34=3|52=20150303-22:10:04.873|268=1|279=0|269=0|278=3|270=1.0|271=100|"));
+        delta = processor.process(fixMessage("35=W|34=4|52=20150303-22:10:05.873|55=EUR/USD|268=3|269=0|278=1|270=1.1|271=200|269=1|278=4|270=1.3|271=100|269=2|278=5|270=1.25|271=10|"));
+        Book expected = new Book("EUR/USD");
+        expected.add(new Order(1L, BID, 1.1, 200L));
+        expected.add(new Order(4L, ASK, 1.3, 100L));
+        Assert.assertEquals(expected, processor.getBook());
+        Assert.assertEquals(new HashSet<>(Arrays.asList(
+                new Delta.Entry(new Order(2L, ASK, 1.2, 100L), Action.DELETE),
+                new Delta.Entry(new Order(3L, BID, 1.0, 100L), Action.DELETE),
+                new Delta.Entry(new Order(1L, BID, 1.1, 200L), Action.UPDATE),
+                new Delta.Entry(new Order(4L, ASK, 1.3, 100L), Action.NEW))), new HashSet<>(delta.getBookChanges()));
+    }
+
+    @Test
+    public void testWarmUp() throws Exception {
+        List<Delta> allDeltas = bookManager.manageBook(bookManager.parseLogs());
+        LocalDateTime startTime = allDeltas.get(allDeltas.size() / 2).getEndDateTime();
+        InputData windowData = new InputData(data.getLogFile(), data.getReportFile(), data.getSymbol(), data.getDepth(), startTime, data.getEndTime());
+        windowData.setParseCacheDir(null);
+        BookManager manager = new BookManager(windowData);
+        List<Delta> deltas = manager.manageBook(manager.parseLogs());
+        List<Delta> expected = allDeltas.stream().filter(delta -> !delta.getEndDateTime().isBefore(startTime)).collect(Collectors.toList());
+        Assert.assertEquals(expected.size(), deltas.size());
+        for (int i = 0; i < deltas.size(); i++) {
+            Assert.assertEquals(expected.get(i).getNumber(), deltas.get(i).getNumber());
+            Assert.assertEquals(expected.get(i).getBook(), deltas.get(i).getBook());
+            Assert.assertEquals(expected.get(i).getBookChanges(), deltas.get(i).getBookChanges());
+            Assert.assertEquals(expected.get(i).getStartDateTime(), deltas.get(i).getStartDateTime());
+        }
+    }
+
+    @Test
+    public void testDeepBook() {
+        Book book = new Book("EUR/USD");
+        Random random = new Random(7);
+        for (long id = 0; id < 200; id++) {
+            book.add(new Order(id, random.nextBoolean() ? BID : ASK, 1.1 + random.nextInt(50) / 1000d, 1000L + id));
+            if (id % 4 == 0) {
+                book.delete((long) random.nextInt((int) id + 1));
+            }
+        }
+        for (int depth : new int[]{1, 3, 20}) {
+            Book snapshot = book.getFirstLevels(depth);
+            List<Double> bidPrices = book.getBids().values().stream().map(Order::getPrice).sorted(Comparator.reverseOrder()).limit(depth).collect(Collectors.toList());
+            List<Double> askPrices = book.getOffers().values().stream().map(Order::getPrice).sorted().limit(depth).collect(Collectors.toList());
+            Assert.assertEquals(bidPrices, snapshot.getBids().values().stream().map(Order::getPrice).sorted(Comparator.reverseOrder()).collect(Collectors.toList()));
+            Assert.assertEquals(askPrices, snapshot.getOffers().values().stream().map(Order::getPrice).sorted().collect(Collectors.toList()));
+        }
+        Assert.assertEquals(book, book.getFirstLevels(InputData.FULL_BOOK));
+        //added orders are taken into account
+        book.add(new Order(1000L, BID, 2.0, 1L));
+        Assert.assertEquals(new Order(1000L, BID, 2.0, 1L), book.getFirstLevels(1).getBids().get(1000L));
+    }
+
+    @Test
+    public void testPriceLevels() throws Exception {
+        Book book = new Book("EUR/USD");
+        book.add(new Order(1L, BID, 1.1, 100L));
+        book.add(new Order(2L, BID, 1.1, 50L));
+        book.add(new Order(3L, BID, 1.0, 10L));
+        book.add(new Order(4L, ASK, 1.2, 70L));
+        book.change(new Order(2L, BID, 1.1, 80L));
+        book.delete(1L);
+        book.add(new Order(5L, BID, 1.1, 20L));
+        List<PriceLevel> bidLevels = new ArrayList<>(book.getPriceLevels(BID));
+        Assert.assertEquals(2, bidLevels.size());
+        Assert.assertEquals(Double.valueOf(1.1), bidLevels.get(0).getPrice());
+        Assert.assertEquals(100L, bidLevels.get(0).getTotalSize());
+        Assert.assertEquals(2, bidLevels.get(0).getOrderCount());
+        Assert.assertEquals(10L, bidLevels.get(1).getTotalSize());
+        Book levels = book.getFirstPriceLevels(1);
+        Assert.assertEquals(Collections.singletonList(new Order(bidLevels.get(0).toOrder().getId(), BID, 1.1, 100L)), new ArrayList<>(levels.getBids().values()));
+        Assert.assertEquals(1, levels.getOffers().size());
+
+        //level view of report: depth counts price levels, changes are level changes
+        BookProcessor processor = new BookProcessor("EUR/USD", 1, null);
+        processor.setBookMode(BookMode.LEVELS);
+        processor.process(fixMessage("35=V|34=1|52=20150303-22:10:02.873|263=1|"));
+        processor.process(fixMessage("35=X|34=2|52=20150303-22:10:03.873|268=2|279=0|269=0|278=1|270=1.1|271=100|279=0|269=0|278=2|270=1.0|271=100|"));
+        Delta delta = processor.process(fixMessage("35=X|34=3|52=20150303-22:10:04.873|268=1|279=0|269=0|278=3|270=1.1|271=30|"));
+        Assert.assertEquals(Long.valueOf(130), delta.getBook().getBids().values().iterator().next().getSize());
+        Assert.assertEquals(Collections.singletonList(Action.UPDATE), delta.getBookChanges().stream().map(Delta.Entry::getAction).collect(Collectors.toList()));
+
+        //deep order view of report shows each order of snapshot, also the last level, which is cut by depth
+        InputData deepData = inputData(data.getLogFile(), data.getReportFile(), 5);
+        processor = new BookProcessor("EUR/USD", 5, null);
+        processor.process(fixMessage("35=V|34=1|52=20150303-22:10:02.873|263=1|"));
+        delta = processor.process(fixMessage("35=X|34=2|52=20150303-22:10:03.873|268=6|279=0|269=0|278=1|270=1.1|271=101|279=0|269=0|278=2|270=1.1|271=102|"
+                + "279=0|269=0|278=3|270=1.1|271=103|279=0|269=0|278=4|270=1.0|271=104|279=0|269=0|278=5|270=1.0|271=105|279=0|269=0|278=6|270=1.0|271=106|"));
+        StringBuilder record = new StringBuilder();
+        new Report(deepData).writeRecord(delta, record);
+        //sizes are shown in input message, book and book changes, the order cut by depth is only in input message
+        for (String size : new String[]{"101", "102", "103", "104", "105"}) {
+            Assert.assertEquals(3, record.toString().split(">" + size + "<", -1).length - 1);
+        }
+        Assert.assertEquals(1, record.toString().split(">106<", -1).length - 1);
+        Assert.assertFalse(record.toString().contains(">306<"));
+        Assert.assertFalse(record.toString().contains(">209<"));
+    }
+
     @Test
     public void testGetUniqueOrders() {
         Order bid1 = new Order(1L, BID, 20d, 10L);
@@ -69,15 +957,15 @@ public class FixBookManagerTest {
         Order ask2 = new Order(4L, ASK, 23d, 10L);
         Order ask3 = new Order(5L, ASK, 24d, 20L);
         Book book = new Book("EUR/USD");
-        book.getBids().put(bid1.getId(), bid1);
-        book.getBids().put(bid2.getId(), bid2);
-        book.getOffers().put(ask1.getId(), ask1);
-        book.getOffers().put(ask2.getId(), ask2);
+        book.add(bid1);
+        book.add(bid2);
+        book.add(ask1);
+        book.add(ask2);
         Book book2 = new Book("EUR/USD");
-        book2.getBids().put(bid1.getId(), bid1);
-        book2.getBids().put(bid2.getId(), bid2);
-        book2.getOffers().put(ask1.getId(), ask1);
-        book2.getOffers().put(ask3.getId(), ask3);
+        book2.add(bid1);
+        book2.add(bid2);
+        book2.add(ask1);
+        book2.add(ask3);
         List<Order> uniqueOrders = BookManagerUtil.getUniqueOrders(book, book2);
         Assert.assertEquals(2, uniqueOrders.size());
         Assert.assertEquals(Arrays.asList(ask2, ask3), uniqueOrders);
@@ -131,9 +1019,9 @@ public class FixBookManagerTest {
         currentBook.putBids(bids);
         currentBook.putOffers(offers);
         List<Order> removedOrders = Arrays.asList(
-                currentBook.getBids().remove(8390592531L),
-                currentBook.getBids().remove(8390592532L),
-                currentBook.getOffers().remove(8390592544L)
+                currentBook.delete(8390592531L),
+                currentBook.delete(8390592532L),
+                currentBook.delete(8390592544L)
         );
         entries = BookManagerUtil.getBookChanges(removedOrders, Stream.concat(bids.stream(), offers.stream()).collect(Collectors.toList()), prevBook, currentBook, 2);
         expected = Collections.singletonList(
@@ -160,10 +1048,10 @@ public class FixBookManagerTest {
         prevBook = currentBook.copy();
 
         removedOrders = Arrays.asList(
-                currentBook.getBids().remove(8390598790L),
-                currentBook.getBids().remove(8390598791L),
-                currentBook.getBids().remove(8390592533L),
-                currentBook.getOffers().remove(8390573953L)
+                currentBook.delete(8390598790L),
+                currentBook.delete(8390598791L),
+                currentBook.delete(8390592533L),
+                currentBook.delete(8390573953L)
         );
         currentBook.putBids(bids);
         currentBook.putOffers(offers);
@@ -202,9 +1090,9 @@ public class FixBookManagerTest {
         prevBook = book.copy();
 
         List<Order> removedOrders = Arrays.asList(
-                book.getBids().remove(1L),
-                book.getOffers().remove(6L),
-                book.getOffers().remove(5L)
+                book.delete(1L),
+                book.delete(6L),
+                book.delete(5L)
         );
         book.putBids(bids);
         book.putOffers(offers);
@@ -263,4 +1151,53 @@ public class FixBookManagerTest {
         Assert.assertFalse(isNew(ask3, book.getOffers()));
         Assert.assertTrue(isNew(new Order(5L, ASK,123d, 45L), book.getOffers()));
     }
+
+    @Test
+    public void testValueEncoder() throws IOException {
+        ValueEncoder encoder = new ValueEncoder();
+        for (double price : new double[]{0.0, 1.0, 1.08345, 1.1, 0.00125, 0.1 + 0.2, 150.123, 1e-4, 2.5e7, 1234567.125}) {
+            Assert.assertEquals(Double.toString(price), encoder.price(price));
+        }
+        for (long size : new long[]{0, 7, -15, 1_000_000, Long.MAX_VALUE, Long.MIN_VALUE}) {
+            Assert.assertEquals(Long.toString(size), encoder.integer(size));
+        }
+        for (LocalDateTime time : new LocalDateTime[]{LocalDateTime.of(2015, 3, 3, 10, 15), LocalDateTime.of(2015, 3, 3, 10, 15, 30),
+                LocalDateTime.of(2015, 3, 3, 10, 15, 30, 123_000_000), LocalDateTime.of(2015, 3, 3, 10, 15, 0, 123_456_000),
+                LocalDateTime.of(2015, 3, 4, 10, 15, 1, 123_456_789)}) {
+            Assert.assertEquals(time.toString(), encoder.dateTime(time));
+        }
+        //append methods write the same text into builder and writer of report
+        StringBuilder builder = new StringBuilder();
+        StringWriter writer = new StringWriter();
+        for (Appendable out : new Appendable[]{builder, writer}) {
+            encoder.appendPrice(1.08345, out);
+            encoder.appendPrice(2.5e7, out);
+            out.append('|');
+            encoder.appendInteger(-15, out);
+            out.append('|');
+            encoder.appendDateTime(LocalDateTime.of(2015, 3, 3, 10, 15, 30, 123_000_000), out);
+        }
+        Assert.assertEquals("1.083452.5E7|-15|2015-03-03T10:15:30.123", builder.toString());
+        Assert.assertEquals(builder.toString(), writer.toString());
+        Delta delta = new Delta();
+        delta.setStartDateTime(LocalDateTime.of(2015, 3, 3, 23, 59, 59, 999_500_000));
+        delta.setEndDateTime(LocalDateTime.of(2015, 3, 4, 0, 0, 1, 250_000_000));
+        Assert.assertEquals(Duration.between(delta.getStartDateTime(), delta.getEndDateTime()).toMillis(), delta.getDifference());
+        delta.setEndDateTime(LocalDateTime.of(2015, 3, 3, 23, 59, 58, 999_500_000));
+        Assert.assertEquals(-1000, delta.getDifference());
+    }
+
+    /**
+     * @param body fields of message from tag 35, separated by '|'
+     * @return FIX 4.4 message with calculated body length and checksum
+     */
+    private static Message fixMessage(String body) {
+        body = body.replace('|', '\u0001');
+        String message = "8=FIX.4.4\u00019=" + body.length() + "\u0001" + body;
+        int checksum = 0;
+        for (char c : message.toCharArray()) {
+            checksum += c;
+        }
+        return FixParser.parse(message + String.format("10=%03d\u0001", checksum % 256));
+    }
 }